@@ -0,0 +1,72 @@
+package com.stephenmatta.ics;
+
+import com.stephenmatta.ics.IcsSplicer.RawCalendar;
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import net.fortuna.ical4j.model.Calendar;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures parsing, merging and serializing N already downloaded sources into one calendar, with
+ * either engine, through the same merge that requests use. Sources are processed on the
+ * benchmark thread, so the score reflects CPU cost rather than the latency of the concurrent
+ * fan-out.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class EndToEndBenchmarks {
+
+    @Param({"1", "4", "16"})
+    private int sources;
+
+    @Param({"1000", "10000"})
+    private int eventsPerSource;
+
+    private CombineICSFunction function;
+    private List<byte[]> feeds;
+
+    @Setup
+    public void setUp() {
+        function = new CombineICSFunction(
+            new Configuration(Map.of("ICS_URLS", "http://localhost/unused.ics")));
+        feeds = IntStream.range(0, sources)
+            .mapToObj(source -> SyntheticCalendars.generate(source, eventsPerSource, true, true,
+                source % 2 == 0))
+            .toList();
+    }
+
+    @Benchmark
+    public String ical4j() {
+        List<Calendar> calendars = feeds.stream()
+            .map(feed -> function.parseCalendar(new ByteArrayInputStream(feed)))
+            .toList();
+        return function.render(function.combineCalendars(calendars, DateWindow.UNBOUNDED,
+            MergeReport.COMPLETE, Metrics.disabled(), System.nanoTime()).content());
+    }
+
+    @Benchmark
+    public String splice() {
+        List<RawCalendar> calendars = feeds.stream()
+            .map(feed -> function.extractRawCalendar(new ByteArrayInputStream(feed)))
+            .toList();
+        return function.render(function.spliceCalendars(calendars, DateWindow.UNBOUNDED,
+            MergeReport.COMPLETE, Metrics.disabled(), System.nanoTime()).content());
+    }
+}
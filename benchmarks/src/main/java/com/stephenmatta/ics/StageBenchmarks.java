@@ -0,0 +1,120 @@
+package com.stephenmatta.ics;
+
+import com.stephenmatta.ics.IcsSplicer.RawCalendar;
+import com.stephenmatta.ics.IcsSplicer.RawEvent;
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import net.fortuna.ical4j.data.CalendarBuilder;
+import net.fortuna.ical4j.model.Calendar;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures each stage of the pipeline on its own, for a single synthetic feed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class StageBenchmarks {
+
+    @Param({"1000", "10000", "100000"})
+    private int eventCount;
+
+    @Param({"false", "true"})
+    private boolean recurring;
+
+    @Param({"false", "true"})
+    private boolean folded;
+
+    @Param({"false", "true"})
+    private boolean timezones;
+
+    private CombineICSFunction function;
+    private ParallelCalendarParser parallelParser;
+    private byte[] feed;
+    private Calendar parsed;
+    private MergedCalendar merged;
+    private RawCalendar rawCalendar;
+    private List<RawEvent> rawEvents;
+    private MergedCalendar spliced;
+
+    @Setup
+    public void setUp() {
+        function = new CombineICSFunction(
+            new Configuration(Map.of("ICS_URLS", "http://localhost/unused.ics")));
+        parallelParser = new ParallelCalendarParser(1,
+            Runtime.getRuntime().availableProcessors(), ForkJoinPool.commonPool());
+        feed = SyntheticCalendars.generate(0, eventCount, recurring, folded, timezones);
+        parsed = function.parseCalendar(new ByteArrayInputStream(feed));
+        merged = merge();
+        rawCalendar = function.extractRawCalendar(new ByteArrayInputStream(feed));
+        rawEvents = rawCalendar.events();
+        spliced = spliceMerge();
+    }
+
+    @Benchmark
+    public Calendar parse() {
+        return function.parseCalendar(new ByteArrayInputStream(feed));
+    }
+
+    /**
+     * Parses with a builder and timezone registry of its own, as every feed was before the
+     * registry was shared.
+     */
+    @Benchmark
+    public Calendar parseUnshared() throws Exception {
+        return new CalendarBuilder().build(new ByteArrayInputStream(feed));
+    }
+
+    @Benchmark
+    public Calendar parseParallel() {
+        return parallelParser.parse(feed, function::parseCalendar);
+    }
+
+    @Benchmark
+    public MergedCalendar merge() {
+        return function.combineCalendars(List.of(parsed), DateWindow.UNBOUNDED,
+            MergeReport.COMPLETE, Metrics.disabled(), System.nanoTime());
+    }
+
+    @Benchmark
+    public String serialize() {
+        return function.render(merged.content());
+    }
+
+    @Benchmark
+    public EventDeduplicator.Deduplicated<RawEvent> deduplicate() {
+        return EventDeduplicator.deduplicate(rawEvents, RawEvent::version);
+    }
+
+    @Benchmark
+    public RawCalendar spliceExtract() {
+        return function.extractRawCalendar(new ByteArrayInputStream(feed));
+    }
+
+    @Benchmark
+    public MergedCalendar spliceMerge() {
+        return function.spliceCalendars(List.of(rawCalendar), DateWindow.UNBOUNDED,
+            MergeReport.COMPLETE, Metrics.disabled(), System.nanoTime());
+    }
+
+    @Benchmark
+    public String spliceWrite() {
+        return function.render(spliced.content());
+    }
+}
@@ -0,0 +1,102 @@
+package com.stephenmatta.ics;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+
+/**
+ * Generates reproducible calendars shaped like the feeds the function combines.
+ */
+final class SyntheticCalendars {
+
+    private static final String CRLF = "\r\n";
+    private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern(
+        "yyyyMMdd'T'HHmmss");
+    private static final LocalDateTime EPOCH = LocalDateTime.of(2015, 1, 1, 8, 0);
+    private static final String TZID = "America/New_York";
+    private static final String VTIMEZONE = String.join(CRLF,
+        "BEGIN:VTIMEZONE",
+        "TZID:" + TZID,
+        "BEGIN:DAYLIGHT",
+        "TZOFFSETFROM:-0500",
+        "TZOFFSETTO:-0400",
+        "TZNAME:EDT",
+        "DTSTART:19700308T020000",
+        "RRULE:FREQ=YEARLY;BYMONTH=3;BYDAY=2SU",
+        "END:DAYLIGHT",
+        "BEGIN:STANDARD",
+        "TZOFFSETFROM:-0400",
+        "TZOFFSETTO:-0500",
+        "TZNAME:EST",
+        "DTSTART:19701101T020000",
+        "RRULE:FREQ=YEARLY;BYMONTH=11;BYDAY=1SU",
+        "END:STANDARD",
+        "END:VTIMEZONE") + CRLF;
+    private static final String LONG_DESCRIPTION = "Agenda: review the previous minutes\\, "
+        + "walk through the open action items\\, agree on next steps and owners\\, and leave "
+        + "time for questions from everyone who dialled in remotely.";
+
+    private SyntheticCalendars() {
+    }
+
+    /**
+     * Generates a calendar of {@code eventCount} events spread over ten years.
+     *
+     * @param source distinguishes the UIDs of calendars generated for different sources
+     * @param recurring whether every tenth event carries a weekly RRULE
+     * @param folded whether events carry a DESCRIPTION long enough to be folded
+     * @param timezones whether times are local to a VTIMEZONE instead of UTC
+     */
+    static byte[] generate(int source, int eventCount, boolean recurring, boolean folded,
+        boolean timezones) {
+        Random random = new Random(31L * source + eventCount);
+        StringBuilder ics = new StringBuilder(eventCount * 320);
+        ics.append("BEGIN:VCALENDAR").append(CRLF)
+            .append("VERSION:2.0").append(CRLF)
+            .append("PRODID:-//Stephen Matta//Masher benchmarks//EN").append(CRLF);
+        if (timezones) {
+            ics.append(VTIMEZONE);
+        }
+        for (int i = 0; i < eventCount; i++) {
+            LocalDateTime start = EPOCH.plusHours(random.nextInt(10 * 365 * 24));
+            ics.append("BEGIN:VEVENT").append(CRLF)
+                .append("UID:event-").append(source).append('-').append(i)
+                .append("@benchmarks.masher.invalid").append(CRLF)
+                .append("DTSTAMP:20240101T000000Z").append(CRLF)
+                .append("SUMMARY:Synthetic event ").append(i).append(CRLF);
+            appendDateTime(ics, "DTSTART", start, timezones);
+            appendDateTime(ics, "DTEND", start.plusMinutes(30L * (1 + random.nextInt(4))),
+                timezones);
+            if (recurring && i % 10 == 0) {
+                ics.append("RRULE:FREQ=WEEKLY;COUNT=").append(5 + random.nextInt(50))
+                    .append(CRLF);
+            }
+            if (folded) {
+                appendFolded(ics, "DESCRIPTION:" + LONG_DESCRIPTION);
+            }
+            ics.append("END:VEVENT").append(CRLF);
+        }
+        ics.append("END:VCALENDAR").append(CRLF);
+        return ics.toString().getBytes(UTF_8);
+    }
+
+    private static void appendDateTime(StringBuilder ics, String name, LocalDateTime value,
+        boolean timezones) {
+        ics.append(name);
+        if (timezones) {
+            ics.append(";TZID=").append(TZID).append(':').append(DATE_TIME.format(value));
+        } else {
+            ics.append(':').append(DATE_TIME.format(value)).append('Z');
+        }
+        ics.append(CRLF);
+    }
+
+    private static void appendFolded(StringBuilder ics, String line) {
+        ics.append(line, 0, Math.min(75, line.length())).append(CRLF);
+        for (int i = 75; i < line.length(); i += 74) {
+            ics.append(' ').append(line, i, Math.min(i + 74, line.length())).append(CRLF);
+        }
+    }
+}
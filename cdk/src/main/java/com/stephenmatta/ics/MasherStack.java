@@ -1,5 +1,7 @@
 package com.stephenmatta.ics;
 
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import software.amazon.awscdk.Duration;
 import software.amazon.awscdk.Stack;
@@ -9,14 +11,24 @@ import software.amazon.awscdk.services.apigateway.LambdaIntegration;
 import software.amazon.awscdk.services.apigateway.RestApi;
 import software.amazon.awscdk.services.certificatemanager.Certificate;
 import software.amazon.awscdk.services.certificatemanager.CertificateValidation;
+import software.amazon.awscdk.services.events.Rule;
+import software.amazon.awscdk.services.events.RuleTargetInput;
+import software.amazon.awscdk.services.events.Schedule;
+import software.amazon.awscdk.services.events.targets.LambdaFunction;
+import software.amazon.awscdk.services.lambda.Alias;
 import software.amazon.awscdk.services.lambda.Code;
 import software.amazon.awscdk.services.lambda.Function;
+import software.amazon.awscdk.services.lambda.IFunction;
 import software.amazon.awscdk.services.lambda.Runtime;
+import software.amazon.awscdk.services.lambda.SnapStartConf;
 import software.amazon.awscdk.services.route53.ARecord;
 import software.amazon.awscdk.services.route53.HostedZoneProviderProps;
 import software.amazon.awscdk.services.route53.IHostedZone;
 import software.amazon.awscdk.services.route53.RecordTarget;
 import software.amazon.awscdk.services.route53.targets.ApiGateway;
+import software.amazon.awscdk.services.s3.BlockPublicAccess;
+import software.amazon.awscdk.services.s3.Bucket;
+import software.amazon.awscdk.services.s3.BucketEncryption;
 import software.constructs.Construct;
 
 public class MasherStack extends Stack {
@@ -24,17 +36,37 @@ public class MasherStack extends Stack {
     private static final String LAMBDA_JAR_PATH = "../lambda/target/masher-1.0-SNAPSHOT.jar";
     private static final int LAMBDA_MEMORY_MB = 512;
     private static final int LAMBDA_TIMEOUT_SECONDS = 10;
+    private static final String HANDLER = "com.stephenmatta.ics.CombineICSFunction::handleRequest";
+    private static final String STREAMING_HANDLER =
+        "com.stephenmatta.ics.StreamingCombineICSFunction::handleRequest";
 
     public MasherStack(final Construct scope, final String id, final StackProps props) {
         super(scope, id, props);
 
-        String icsUrls = getContextValue("icsUrls");
-        String calendarName = getContextValue("calendarName");
+        String icsUrls = getOptionalContextValue("icsUrls");
+        String calendars = getOptionalContextValue("calendars");
+        if (icsUrls == null && calendars == null) {
+            throw new IllegalArgumentException(
+                "Context 'icsUrls' or 'calendars' is required but neither is provided.");
+        }
+        String calendarName = icsUrls == null ? null : getContextValue("calendarName");
         String domainName = getContextValue("domainName");
         String subdomainName = getContextValue("subdomainName");
-
-        Function combineIcsLambda = createCombineIcsLambda(icsUrls);
-        RestApi api = createApiGateway(calendarName, combineIcsLambda);
+        boolean streamingHandler = getBooleanContextValue("streamingHandler");
+        boolean snapStart = getBooleanContextValue("snapStart");
+        boolean snapshots = getBooleanContextValue("snapshots");
+        int prewarmMinutes = getIntContextValue("prewarmMinutes");
+
+        Function combineIcsLambda = createCombineIcsLambda(icsUrls, calendars, streamingHandler,
+            snapStart);
+        if (snapshots) {
+            createSnapshotBucket(combineIcsLambda);
+        }
+        IFunction apiTarget = snapStart ? createLiveAlias(combineIcsLambda) : combineIcsLambda;
+        if (prewarmMinutes > 0) {
+            createPrewarmSchedule(apiTarget, prewarmMinutes);
+        }
+        RestApi api = createApiGateway(calendarName, calendars != null, apiTarget);
         IHostedZone hostedZone = lookupHostedZone(domainName);
         Certificate certificate = createCertificate(hostedZone, subdomainName);
 
@@ -51,25 +83,119 @@ public class MasherStack extends Stack {
         return stringValue;
     }
 
-    private Function createCombineIcsLambda(String icsUrls) {
-        return Function.Builder.create(this, "CombineICSFunction")
+    private String getOptionalContextValue(String contextKey) {
+        Object contextValue = this.getNode().tryGetContext(contextKey);
+        return contextValue instanceof String stringValue && !stringValue.isEmpty()
+            ? stringValue
+            : null;
+    }
+
+    private boolean getBooleanContextValue(String contextKey) {
+        Object contextValue = this.getNode().tryGetContext(contextKey);
+        return contextValue instanceof Boolean booleanValue
+            ? booleanValue
+            : contextValue instanceof String stringValue && Boolean.parseBoolean(stringValue);
+    }
+
+    private int getIntContextValue(String contextKey) {
+        Object contextValue = this.getNode().tryGetContext(contextKey);
+        try {
+            return contextValue instanceof Number number
+                ? number.intValue()
+                : contextValue instanceof String stringValue ? Integer.parseInt(stringValue) : 0;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(
+                "Context '" + contextKey + "' must be a whole number.", e);
+        }
+    }
+
+    /**
+     * Creates the function serving the calendar of {@code icsUrls} and the named calendars of
+     * {@code calendars}, given as {@code name=url,url;name=url}, either of which may be
+     * {@code null}.
+     */
+    private Function createCombineIcsLambda(String icsUrls, String calendars,
+        boolean streamingHandler, boolean snapStart) {
+        Map<String, String> environment = new HashMap<>();
+        if (icsUrls != null) {
+            environment.put("ICS_URLS", icsUrls);
+        }
+        if (calendars != null) {
+            environment.put("ICS_CALENDARS", calendars);
+        }
+        Function.Builder builder = Function.Builder.create(this, "CombineICSFunction")
             .runtime(Runtime.JAVA_21)
-            .handler("com.stephenmatta.ics.CombineICSFunction::handleRequest")
+            .handler(streamingHandler ? STREAMING_HANDLER : HANDLER)
             .code(Code.fromAsset(LAMBDA_JAR_PATH))
             .memorySize(LAMBDA_MEMORY_MB)
             .timeout(Duration.seconds(LAMBDA_TIMEOUT_SECONDS))
-            .environment(Map.of("ICS_URLS", icsUrls))
+            .environment(environment);
+        if (snapStart) {
+            builder.snapStart(SnapStartConf.ON_PUBLISHED_VERSIONS);
+        }
+        return builder.build();
+    }
+
+    /**
+     * SnapStart only applies to published versions, so the API has to invoke an alias of the
+     * current version rather than $LATEST.
+     */
+    private Alias createLiveAlias(Function lambdaFunction) {
+        return Alias.Builder.create(this, "CombineICSFunctionLive")
+            .aliasName("live")
+            .version(lambdaFunction.getCurrentVersion())
+            .build();
+    }
+
+    /**
+     * Keeps the last combined calendars and upstream feeds in S3, so that a cold start can serve
+     * them before the feeds have been fetched again.
+     */
+    private void createSnapshotBucket(Function lambdaFunction) {
+        Bucket bucket = Bucket.Builder.create(this, "SnapshotBucket")
+            .encryption(BucketEncryption.S3_MANAGED)
+            .blockPublicAccess(BlockPublicAccess.BLOCK_ALL)
+            .enforceSsl(true)
             .build();
+        bucket.grantReadWrite(lambdaFunction);
+        lambdaFunction.addEnvironment("ICS_SNAPSHOT_LOCATION",
+            "s3://" + bucket.getBucketName() + "/");
     }
 
-    private RestApi createApiGateway(String calendarName, Function lambdaFunction) {
+    /**
+     * Invokes the function on a schedule so that it rebuilds the calendar, and its snapshot,
+     * before a client has to wait for it.
+     */
+    private void createPrewarmSchedule(IFunction lambdaFunction, int minutes) {
+        Rule.Builder.create(this, "PrewarmSchedule")
+            .schedule(Schedule.rate(Duration.minutes(minutes)))
+            .targets(List.of(LambdaFunction.Builder.create(lambdaFunction)
+                .event(RuleTargetInput.fromObject(Map.of("prewarm", true)))
+                .build()))
+            .build();
+    }
+
+    /**
+     * Serves the default calendar at {@code /<calendarName>.ics} unless {@code calendarName} is
+     * {@code null}, and each named calendar at {@code /<name>.ics} through a path parameter.
+     */
+    private RestApi createApiGateway(String calendarName, boolean namedCalendars,
+        IFunction lambdaFunction) {
         RestApi api = RestApi.Builder.create(this, "CombineICSApi")
             .restApiName("Combine ICS Service")
             .description("This service combines ICS files from multiple URLs into one.")
+            // Lets the function return gzip-compressed bodies as base64, which API Gateway
+            // decodes back to binary for any Accept header the client sends.
+            .binaryMediaTypes(List.of("*/*"))
             .build();
 
-        api.getRoot().addResource(calendarName + ".ics")
-            .addMethod("GET", new LambdaIntegration(lambdaFunction));
+        LambdaIntegration integration = new LambdaIntegration(lambdaFunction);
+        if (calendarName != null) {
+            api.getRoot().addResource(calendarName + ".ics").addMethod("GET", integration);
+        }
+        if (namedCalendars) {
+            api.getRoot().addResource("{calendar}").addMethod("GET", integration);
+        }
 
         return api;
     }
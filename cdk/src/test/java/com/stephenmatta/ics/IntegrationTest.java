@@ -1,5 +1,6 @@
 package com.stephenmatta.ics;
 
+import java.util.List;
 import java.util.Map;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -18,19 +19,26 @@ public class IntegrationTest {
 
     @BeforeEach
     public void setup() {
+        stack = createStack(Map.of());
+    }
+
+    private Stack createStack(Map<String, String> extraContext) {
         app = new App();
 
         app.getNode().setContext("icsUrls", "https://example.com/calendar.ics");
         app.getNode().setContext("calendarName", "my-calendar");
         app.getNode().setContext("domainName", "example.com");
         app.getNode().setContext("subdomainName", "api.example.com");
+        extraContext.forEach(app.getNode()::setContext);
 
         Environment awsEnv = Environment.builder().account("123456789012").region("us-east-1")
             .build();
 
-        stack = new MasherStack(app, "TestMasherStack", StackProps.builder().env(awsEnv).build());
+        Stack masherStack = new MasherStack(app, "TestMasherStack",
+            StackProps.builder().env(awsEnv).build());
 
         app.synth();
+        return masherStack;
     }
 
     @Test
@@ -47,6 +55,66 @@ public class IntegrationTest {
             Map.of("Environment", Map.of("Variables", Map.of("ICS_URLS", Match.anyValue())))));
     }
 
+    @Test
+    public void testStreamingHandlerSelectedByContext() {
+        Template template = Template.fromStack(createStack(Map.of("streamingHandler", "true")));
+
+        // Assert that the streaming entry point is deployed instead of the default handler
+        template.hasResourceProperties("AWS::Lambda::Function",
+            Map.of("Handler", "com.stephenmatta.ics.StreamingCombineICSFunction::handleRequest"));
+    }
+
+    @Test
+    public void testSnapStartEnabledByContext() {
+        Template template = Template.fromStack(createStack(Map.of("snapStart", "true")));
+
+        // Assert that SnapStart is enabled and the API invokes a published alias
+        template.hasResourceProperties("AWS::Lambda::Function",
+            Map.of("SnapStart", Map.of("ApplyOn", "PublishedVersions")));
+        template.hasResourceProperties("AWS::Lambda::Alias", Map.of("Name", "live"));
+    }
+
+    @Test
+    public void testSnapshotsAndPrewarmScheduleCreatedByContext() {
+        Template template = Template.fromStack(createStack(Map.of("snapshots", "true",
+            "prewarmMinutes", "5")));
+
+        // Assert that the function is pointed at a snapshot bucket
+        template.resourceCountIs("AWS::S3::Bucket", 1);
+        template.hasResourceProperties("AWS::Lambda::Function", Match.objectLike(
+            Map.of("Environment", Map.of("Variables",
+                Map.of("ICS_SNAPSHOT_LOCATION", Match.anyValue())))));
+
+        // Assert that the function is invoked with a prewarm event on a schedule
+        template.hasResourceProperties("AWS::Events::Rule", Map.of(
+            "ScheduleExpression", "rate(5 minutes)",
+            "Targets", List.of(Match.objectLike(Map.of("Input", "{\"prewarm\":true}")))));
+    }
+
+    @Test
+    public void testNoSnapshotsOrPrewarmScheduleByDefault() {
+        Template template = Template.fromStack(stack);
+
+        template.resourceCountIs("AWS::S3::Bucket", 0);
+        template.resourceCountIs("AWS::Events::Rule", 0);
+    }
+
+    @Test
+    public void testNamedCalendarsRoutedByPathParameter() {
+        Template template = Template.fromStack(createStack(Map.of("calendars",
+            "family=https://example.com/a.ics,https://example.com/b.ics;"
+                + "team=https://example.com/b.ics")));
+
+        // Assert that the function gets the named calendars and a path parameter resource
+        template.hasResourceProperties("AWS::Lambda::Function", Match.objectLike(
+            Map.of("Environment", Map.of("Variables", Map.of("ICS_CALENDARS", Match.anyValue(),
+                "ICS_URLS", Match.anyValue())))));
+        template.hasResourceProperties("AWS::ApiGateway::Resource",
+            Map.of("PathPart", "{calendar}"));
+        template.hasResourceProperties("AWS::ApiGateway::Resource",
+            Map.of("PathPart", "my-calendar.ics"));
+    }
+
     @Test
     public void testApiGatewayCreated() {
         Template template = Template.fromStack(stack);
@@ -55,6 +123,10 @@ public class IntegrationTest {
         template.hasResourceProperties("AWS::ApiGateway::RestApi",
             Map.of("Name", "Combine ICS Service", "Description",
                 "This service combines ICS files from multiple URLs into one."));
+
+        // Assert that binary responses are enabled for gzip-compressed calendars
+        template.hasResourceProperties("AWS::ApiGateway::RestApi",
+            Map.of("BinaryMediaTypes", List.of("*/*")));
     }
 
     @Test
@@ -0,0 +1,88 @@
+package com.stephenmatta.ics;
+
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Read-only view of the API Gateway proxy event the Lambda runtime hands to the function as a
+ * plain map. Header names are matched case-insensitively, as in HTTP.
+ */
+final class ApiGatewayRequest {
+
+    private static final ApiGatewayRequest EMPTY = new ApiGatewayRequest(Map.of());
+
+    private final Map<?, ?> event;
+
+    private ApiGatewayRequest(Map<?, ?> event) {
+        this.event = event;
+    }
+
+    static ApiGatewayRequest from(Object input) {
+        return input instanceof Map<?, ?> event ? new ApiGatewayRequest(event) : EMPTY;
+    }
+
+    Optional<String> header(String name) {
+        if (!(event.get("headers") instanceof Map<?, ?> headers)) {
+            return Optional.empty();
+        }
+        return headers.entrySet().stream()
+            .filter(entry -> entry.getKey() instanceof String key && key.equalsIgnoreCase(name))
+            .map(Map.Entry::getValue)
+            .filter(String.class::isInstance)
+            .map(String.class::cast)
+            .findFirst();
+    }
+
+    /**
+     * Whether the client accepts gzip-compressed responses, honouring {@code q=0} exclusions. A
+     * {@code gzip} or {@code x-gzip} element takes precedence over {@code *}, which only applies
+     * when gzip is not listed.
+     */
+    boolean acceptsGzip() {
+        double gzip = -1;
+        double wildcard = -1;
+        for (String element : header("Accept-Encoding").orElse("").split(",")) {
+            String[] parts = element.split(";");
+            String coding = parts[0].trim();
+            if (coding.equalsIgnoreCase("gzip") || coding.equalsIgnoreCase("x-gzip")) {
+                gzip = Math.max(gzip, quality(parts));
+            } else if (coding.equals("*")) {
+                wildcard = Math.max(wildcard, quality(parts));
+            }
+        }
+        return (gzip >= 0 ? gzip : wildcard) > 0;
+    }
+
+    /**
+     * Returns the quality the parameters of an Accept-Encoding element assign to its coding.
+     */
+    private static double quality(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String parameter = parts[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    Optional<String> queryParameter(String name) {
+        return stringValue("queryStringParameters", name);
+    }
+
+    Optional<String> pathParameter(String name) {
+        return stringValue("pathParameters", name);
+    }
+
+    private Optional<String> stringValue(String mapName, String key) {
+        if (event.get(mapName) instanceof Map<?, ?> values
+            && values.get(key) instanceof String value) {
+            return Optional.of(value);
+        }
+        return Optional.empty();
+    }
+}
@@ -0,0 +1,108 @@
+package com.stephenmatta.ics;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * The credentials requests to AWS are signed with.
+ *
+ * @param sessionToken the session token of temporary credentials, or {@code null}
+ */
+record AwsCredentials(String accessKeyId, String secretAccessKey, String sessionToken) {
+
+    private static final Duration REFRESH_BEFORE_EXPIRY = Duration.ofMinutes(5);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * Returns the credentials of the function's execution role. Lambda provides them through the
+     * container credentials endpoint where it sets one up, which it does for SnapStart functions,
+     * and otherwise through environment variables. They are read when first needed rather than
+     * when the function starts, so that a restored snapshot does not sign with stale credentials.
+     */
+    static Supplier<AwsCredentials> fromEnvironment(Map<String, String> environment,
+        Supplier<HttpClient> httpClient, Clock clock) {
+        String endpoint = environment.get("AWS_CONTAINER_CREDENTIALS_FULL_URI");
+        if (endpoint != null && !endpoint.isEmpty()) {
+            return new ContainerCredentials(URI.create(endpoint),
+                environment.get("AWS_CONTAINER_AUTHORIZATION_TOKEN"), httpClient, clock);
+        }
+        return () -> {
+            String accessKeyId = environment.get("AWS_ACCESS_KEY_ID");
+            String secretAccessKey = environment.get("AWS_SECRET_ACCESS_KEY");
+            if (accessKeyId == null || secretAccessKey == null) {
+                throw new IllegalStateException(
+                    "AWS_ACCESS_KEY_ID and AWS_SECRET_ACCESS_KEY are required to access S3.");
+            }
+            return new AwsCredentials(accessKeyId, secretAccessKey,
+                environment.get("AWS_SESSION_TOKEN"));
+        };
+    }
+
+    /**
+     * Fetches credentials from the container credentials endpoint and reuses them until shortly
+     * before they expire.
+     */
+    private static final class ContainerCredentials implements Supplier<AwsCredentials> {
+
+        private final URI endpoint;
+        private final String authorizationToken;
+        private final Supplier<HttpClient> httpClient;
+        private final Clock clock;
+        private AwsCredentials credentials;
+        private Instant expiration;
+
+        ContainerCredentials(URI endpoint, String authorizationToken,
+            Supplier<HttpClient> httpClient, Clock clock) {
+            this.endpoint = endpoint;
+            this.authorizationToken = authorizationToken;
+            this.httpClient = httpClient;
+            this.clock = clock;
+        }
+
+        @Override
+        public synchronized AwsCredentials get() {
+            if (credentials == null
+                || clock.instant().isAfter(expiration.minus(REFRESH_BEFORE_EXPIRY))) {
+                fetch();
+            }
+            return credentials;
+        }
+
+        private void fetch() {
+            HttpRequest.Builder request = HttpRequest.newBuilder(endpoint);
+            if (authorizationToken != null) {
+                request.header("Authorization", authorizationToken);
+            }
+            try {
+                HttpResponse<byte[]> response = httpClient.get().send(request.build(),
+                    HttpResponse.BodyHandlers.ofByteArray());
+                if (response.statusCode() != 200) {
+                    throw new IOException(
+                        "Fetching credentials failed: HTTP " + response.statusCode());
+                }
+                JsonNode json = objectMapper.readTree(response.body());
+                credentials = new AwsCredentials(json.path("AccessKeyId").asText(),
+                    json.path("SecretAccessKey").asText(), json.path("Token").asText(null));
+                expiration = json.hasNonNull("Expiration")
+                    ? Instant.parse(json.get("Expiration").asText())
+                    : Instant.MAX;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while fetching credentials", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.stephenmatta.ics;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Signs requests with AWS Signature Version 4, for the few S3 calls the snapshot store makes
+ * without pulling in the AWS SDK and its start-up cost.
+ */
+final class AwsRequestSigner {
+
+    static final String EMPTY_PAYLOAD_HASH =
+        "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+    private static final String ALGORITHM = "AWS4-HMAC-SHA256";
+    private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern(
+        "yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+    private static final DateTimeFormatter DATE = DateTimeFormatter.ofPattern("yyyyMMdd")
+        .withZone(ZoneOffset.UTC);
+
+    private final String region;
+    private final String service;
+
+    AwsRequestSigner(String region, String service) {
+        this.region = region;
+        this.service = service;
+    }
+
+    /**
+     * Returns the headers to add to the request: {@code x-amz-date},
+     * {@code x-amz-content-sha256}, the session token if there is one, and
+     * {@code Authorization}. {@code headers} must include {@code host} and every other header
+     * that is to be signed.
+     *
+     * @param path the request path, already URI-encoded
+     */
+    Map<String, String> sign(String method, String path, Map<String, String> headers,
+        String payloadHash, AwsCredentials credentials, Instant now) {
+        Map<String, String> signed = new TreeMap<>();
+        headers.forEach((name, value) -> signed.put(name.toLowerCase(Locale.ROOT), value.trim()));
+        signed.put("x-amz-date", DATE_TIME.format(now));
+        signed.put("x-amz-content-sha256", payloadHash);
+        if (credentials.sessionToken() != null) {
+            signed.put("x-amz-security-token", credentials.sessionToken());
+        }
+
+        String signedHeaders = String.join(";", signed.keySet());
+        String canonicalRequest = method + "\n" + path + "\n\n"
+            + signed.entrySet().stream()
+                .map(header -> header.getKey() + ":" + header.getValue() + "\n")
+                .collect(Collectors.joining())
+            + "\n" + signedHeaders + "\n" + payloadHash;
+        String scope = DATE.format(now) + "/" + region + "/" + service + "/aws4_request";
+        String stringToSign = ALGORITHM + "\n" + DATE_TIME.format(now) + "\n" + scope + "\n"
+            + sha256Hex(canonicalRequest.getBytes(UTF_8));
+
+        byte[] key = hmac(("AWS4" + credentials.secretAccessKey()).getBytes(UTF_8),
+            DATE.format(now));
+        key = hmac(key, region);
+        key = hmac(key, service);
+        key = hmac(key, "aws4_request");
+        String signature = HexFormat.of().formatHex(hmac(key, stringToSign));
+
+        signed.keySet().removeAll(headers.keySet().stream()
+            .map(name -> name.toLowerCase(Locale.ROOT)).toList());
+        signed.put("Authorization", ALGORITHM + " Credential=" + credentials.accessKeyId() + "/"
+            + scope + ", SignedHeaders=" + signedHeaders + ", Signature=" + signature);
+        return signed;
+    }
+
+    static String sha256Hex(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static byte[] hmac(byte[] key, String data) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac.doFinal(data.getBytes(UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+}
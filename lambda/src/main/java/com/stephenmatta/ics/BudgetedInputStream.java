@@ -0,0 +1,120 @@
+package com.stephenmatta.ics;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes and the VEVENTs of a feed as it is read, and fails the read as soon as either
+ * goes over the feed's budget, so that an oversized feed is never read in full.
+ *
+ * <p>Events are counted by their {@code BEGIN:VEVENT} lines, so nothing has to be decoded or
+ * buffered to count them.
+ */
+final class BudgetedInputStream extends FilterInputStream {
+
+    private static final byte[] BEGIN_VEVENT = "BEGIN:VEVENT".getBytes(US_ASCII);
+
+    private final long maxBytes;
+    private final int maxEvents;
+    private long count;
+    private int events;
+    private int matched;
+    private String exceeded;
+
+    /**
+     * @param maxBytes  the most bytes that may be read, or 0 for no limit
+     * @param maxEvents the most VEVENTs that may be read, or 0 for no limit
+     */
+    BudgetedInputStream(InputStream in, long maxBytes, int maxEvents) {
+        super(in);
+        this.maxBytes = maxBytes;
+        this.maxEvents = maxEvents;
+    }
+
+    long count() {
+        return count;
+    }
+
+    /**
+     * Which budget the feed went over, or {@code null} if it has not gone over either.
+     */
+    String exceeded() {
+        return exceeded;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0) {
+            count++;
+            if (maxEvents > 0) {
+                scan(b);
+            }
+            checkBytes();
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] bytes, int off, int len) throws IOException {
+        int read = super.read(bytes, off, len);
+        if (read > 0) {
+            count += read;
+            if (maxEvents > 0) {
+                for (int i = off; i < off + read; i++) {
+                    scan(bytes[i]);
+                }
+            }
+            checkBytes();
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        count += skipped;
+        checkBytes();
+        return skipped;
+    }
+
+    /**
+     * Matches the start of every line against {@code BEGIN:VEVENT}, ignoring case. A negative
+     * {@code matched} means the current line has already failed to match.
+     */
+    private void scan(int b) throws BudgetExceededException {
+        if (b == '\n') {
+            matched = 0;
+        } else if (matched >= 0) {
+            if (Character.toUpperCase((char) (b & 0xff)) != BEGIN_VEVENT[matched]) {
+                matched = -1;
+            } else if (++matched == BEGIN_VEVENT.length) {
+                matched = -1;
+                if (++events > maxEvents) {
+                    fail("more than " + maxEvents + " events");
+                }
+            }
+        }
+    }
+
+    private void checkBytes() throws BudgetExceededException {
+        if (maxBytes > 0 && count > maxBytes) {
+            fail("more than " + maxBytes + " bytes");
+        }
+    }
+
+    private void fail(String budget) throws BudgetExceededException {
+        exceeded = budget;
+        throw new BudgetExceededException("Feed has " + budget);
+    }
+
+    private static class BudgetExceededException extends IOException {
+
+        public BudgetExceededException(String message) {
+            super(message);
+        }
+    }
+}
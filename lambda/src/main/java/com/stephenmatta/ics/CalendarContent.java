@@ -0,0 +1,13 @@
+package com.stephenmatta.ics;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * A combined calendar that has been merged but not yet serialized.
+ */
+@FunctionalInterface
+interface CalendarContent {
+
+    void writeTo(Writer writer) throws IOException;
+}
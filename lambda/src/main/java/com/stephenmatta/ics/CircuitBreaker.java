@@ -0,0 +1,91 @@
+package com.stephenmatta.ics;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stops fetching an upstream feed that keeps failing, so that requests stop waiting for its
+ * timeouts.
+ *
+ * <p>After {@code failureThreshold} consecutive failures the circuit opens and fetches are
+ * refused for the open duration. The first fetch after that is let through as a probe while the
+ * circuit is half open: if it succeeds the circuit closes, and if it fails the circuit opens again
+ * for twice as long as before, up to {@value #MAX_BACKOFF_FACTOR} times the open duration.
+ */
+class CircuitBreaker {
+
+    private static final Logger log = LoggerFactory.getLogger(CircuitBreaker.class);
+    private static final int MAX_BACKOFF_FACTOR = 16;
+
+    private final String name;
+    private final int failureThreshold;
+    private final Duration openDuration;
+    private final Clock clock;
+    private State state = State.CLOSED;
+    private int failures;
+    private int backoffFactor = 1;
+    private Instant openUntil = Instant.MIN;
+
+    CircuitBreaker(String name, int failureThreshold, Duration openDuration, Clock clock) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openDuration = openDuration;
+        this.clock = clock;
+    }
+
+    /**
+     * Whether a fetch may be sent now. Once the circuit has been open long enough this lets one
+     * probe through, and refuses everything else until that probe's outcome is recorded.
+     */
+    synchronized boolean tryAcquire() {
+        if (state == State.OPEN && !clock.instant().isBefore(openUntil)) {
+            log.info("Half-opening circuit of {} to probe it", name);
+            state = State.HALF_OPEN;
+            return true;
+        }
+        return state == State.CLOSED;
+    }
+
+    synchronized void recordSuccess() {
+        if (state != State.CLOSED) {
+            log.info("Closing circuit of {}, which has recovered", name);
+        }
+        state = State.CLOSED;
+        failures = 0;
+        backoffFactor = 1;
+    }
+
+    synchronized void recordFailure() {
+        failures++;
+        if (state == State.HALF_OPEN) {
+            backoffFactor = Math.min(backoffFactor * 2, MAX_BACKOFF_FACTOR);
+            open();
+        } else if (state == State.CLOSED && failures >= failureThreshold) {
+            open();
+        }
+    }
+
+    synchronized State state() {
+        return state;
+    }
+
+    private void open() {
+        Duration backoff = openDuration.multipliedBy(backoffFactor);
+        log.warn("Opening circuit of {} after {} consecutive failures, retrying in {} s", name,
+            failures, backoff.toSeconds());
+        state = State.OPEN;
+        openUntil = clock.instant().plus(backoff);
+    }
+
+    enum State {
+        /** Fetches are sent as usual. */
+        CLOSED,
+        /** Fetches are refused until the open duration has passed. */
+        OPEN,
+        /** A single probe has been let through, and its outcome decides the next state. */
+        HALF_OPEN
+    }
+}
@@ -1,96 +1,695 @@
 package com.stephenmatta.ics;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static net.fortuna.ical4j.model.Component.VEVENT;
+import static net.fortuna.ical4j.model.Component.VTIMEZONE;
 import static net.fortuna.ical4j.model.Property.DTSTAMP;
+import static net.fortuna.ical4j.model.Property.TZID;
 
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.stephenmatta.ics.EventDeduplicator.Deduplicated;
+import com.stephenmatta.ics.EventDeduplicator.EventVersion;
+import com.stephenmatta.ics.IcsSplicer.RawCalendar;
+import com.stephenmatta.ics.IcsSplicer.RawEvent;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.StringWriter;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
-import net.fortuna.ical4j.data.CalendarBuilder;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongBiFunction;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 import net.fortuna.ical4j.data.CalendarOutputter;
 import net.fortuna.ical4j.data.ParserException;
 import net.fortuna.ical4j.model.Calendar;
+import net.fortuna.ical4j.model.ComponentList;
+import net.fortuna.ical4j.model.Parameter;
+import net.fortuna.ical4j.model.component.CalendarComponent;
+import net.fortuna.ical4j.model.component.VTimeZone;
 import net.fortuna.ical4j.model.property.DtStamp;
+import org.crac.Core;
+import org.crac.Resource;
 import org.jetbrains.annotations.TestOnly;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class CombineICSFunction implements RequestHandler<Object, Map<String, Object>> {
+public final class CombineICSFunction implements RequestHandler<Object, Map<String, Object>>,
+    Resource {
 
     private static final Logger log = LoggerFactory.getLogger(CombineICSFunction.class);
-    private static final HttpClient httpClient = HttpClient.newHttpClient();
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    static final String PROD_ID = "-//Stephen Matta//iCal4j 1.0//EN";
+    private static final String PRIMING_CALENDAR = "/priming.ics";
+    private static final int MAX_CACHED_WINDOWS = 32;
+    private static final int MAX_SYNC_VERSIONS = 16;
+    private static final Path SPILL_DIRECTORY = Path.of(System.getProperty("java.io.tmpdir"));
+    private static final String SYNC_TOKEN_PARAMETER = "syncToken";
+    static final String PREWARM_EVENT_KEY = "prewarm";
+    /**
+     * The calendar served when a request names none, made of the feeds in {@code ICS_URLS}.
+     */
+    static final String DEFAULT_CALENDAR = "";
+    static final String CALENDAR_PATH_PARAMETER = "calendar";
     private final Configuration configuration;
+    private final SourceFetcher sourceFetcher;
+    private final ParallelCalendarParser parallelParser;
+    private final Snapshots snapshots;
+    private final MetricsLogger metricsLogger;
+    private final AtomicBoolean coldStart = new AtomicBoolean(true);
+    private final Map<Projection, SourceCache<Calendar>> calendarCaches =
+        new ConcurrentHashMap<>();
+    private final Map<Projection, SourceCache<RawCalendar>> rawCalendarCaches =
+        new ConcurrentHashMap<>();
+    private final SharedTimeZoneRegistry timeZoneRegistry = SharedTimeZoneRegistry.getInstance();
+    private final SharedCalendarBuilder calendarBuilder = new SharedCalendarBuilder(
+        timeZoneRegistry);
+    private final Duration responseCacheTtl;
+    private final Map<String, ResponseCache<CombinedCalendar>> responseCaches;
+    private final Map<String, CombinedCalendar> lastCalendars;
+    private final Map<String, SyncHistory> syncHistories;
+    private final Clock clock;
 
+    /**
+     * Creates the function Lambda runs, which is primed before a SnapStart snapshot is taken.
+     */
     @SuppressWarnings("unused") // Used by AWS Lambda
     public CombineICSFunction() {
         this(new Configuration());
+        Core.getGlobalContext().register(this);
     }
 
     @TestOnly
     public CombineICSFunction(Configuration configuration) {
+        this(configuration, Clock.systemUTC());
+    }
+
+    @TestOnly
+    CombineICSFunction(Configuration configuration, Clock clock) {
+        this(configuration, clock, null);
+    }
+
+    /**
+     * @param metricsSink receives every metrics record, or {@code null} to log them
+     */
+    @TestOnly
+    CombineICSFunction(Configuration configuration, Clock clock, Consumer<String> metricsSink) {
         this.configuration = configuration;
+        this.clock = clock;
+        this.metricsLogger = MetricsLogger.from(configuration, metricsSink, clock);
+        this.snapshots = SnapshotStore.open(configuration, System.getenv(), this::httpClient)
+            .map(Snapshots::new)
+            .orElse(Snapshots.disabled());
+        this.sourceFetcher = new SourceFetcher(configuration, clock, snapshots);
+        this.parallelParser = new ParallelCalendarParser(
+            configuration.getParallelParseThreshold(),
+            Runtime.getRuntime().availableProcessors(), ForkJoinPool.commonPool());
+        this.responseCacheTtl = configuration.getResponseCacheTtl();
+        int maxCachedWindows = MAX_CACHED_WINDOWS * (1 + configuration.getCalendars().size());
+        this.responseCaches = boundedMap(maxCachedWindows);
+        this.lastCalendars = boundedMap(maxCachedWindows);
+        this.syncHistories = boundedMap(maxCachedWindows);
+        timeZoneRegistry.preload(configuration.getPreloadedTimezones());
+    }
+
+    /**
+     * Runs the hot path once against a bundled calendar before a SnapStart snapshot is taken, so
+     * that restored functions start with ical4j, its timezone data and the response code already
+     * loaded and initialised.
+     */
+    @Override
+    public void beforeCheckpoint(org.crac.Context<? extends Resource> context) {
+        long start = System.nanoTime();
+        prime();
+        log.info("Primed function in {} ms", (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Replaces the HTTP client, whose connections and selector thread do not survive a restore,
+     * and counts the next request as a cold start.
+     */
+    @Override
+    public void afterRestore(org.crac.Context<? extends Resource> context) {
+        sourceFetcher.resetHttpClient();
+        coldStart.set(true);
+    }
+
+    /**
+     * The client upstream feeds are currently fetched with, which snapshots are stored with too.
+     */
+    private HttpClient httpClient() {
+        return sourceFetcher.httpClient();
+    }
+
+    private void prime() {
+        byte[] sample = loadPrimingCalendar();
+        // A fixed window around the bundled events, so that none of them are filtered out
+        DateWindow window = DateWindow.from(ApiGatewayRequest.from(Map.of(
+            "queryStringParameters", Map.of("from", "2024-01-01", "to", "2024-01-31"))), clock);
+
+        MergedCalendar merged = combineCalendars(
+            List.of(parseCalendar(new ByteArrayInputStream(sample))), window,
+            MergeReport.COMPLETE, Metrics.disabled(), System.nanoTime());
+        CombinedCalendar combinedCalendar = CombinedCalendar.of(render(merged.content()),
+            merged.report(), null, clock.instant());
+        combinedCalendar.gzippedBase64();
+        combinedCalendar.isNotModified(ApiGatewayRequest.from(Map.of("headers",
+            Map.of("If-None-Match", combinedCalendar.etag(), "Accept-Encoding", "gzip"))));
+        createResponse(200, combinedCalendar, true, true);
+
+        render(spliceCalendars(List.of(extractRawCalendar(new ByteArrayInputStream(sample))),
+            window, MergeReport.COMPLETE, Metrics.disabled(), System.nanoTime()).content());
+
+        HttpRequest.newBuilder(URI.create("https://masher.invalid/priming.ics")).build();
+    }
+
+    private static byte[] loadPrimingCalendar() {
+        try (InputStream inputStream = CombineICSFunction.class.getResourceAsStream(
+            PRIMING_CALENDAR)) {
+            if (inputStream == null) {
+                throw new IllegalStateException("Missing priming calendar " + PRIMING_CALENDAR);
+            }
+            return inputStream.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     @Override
     public Map<String, Object> handleRequest(Object input, Context context) {
+        if (isPrewarmEvent(input)) {
+            coldStart.set(false);
+            return prewarm(context);
+        }
+        long start = System.nanoTime();
+        Metrics metrics = metricsLogger.start("Request");
+        metrics.putCount("ColdStart", coldStart.getAndSet(false) ? 1 : 0);
+        if (context != null && context.getAwsRequestId() != null) {
+            metrics.property("RequestId", context.getAwsRequestId());
+        }
+        Map<String, Object> response = respond(input, context, metrics);
+        metrics.property("StatusCode", String.valueOf(response.get("statusCode")));
+        metrics.put("ResponseBytes", ((String) response.get("body")).length(),
+            Metrics.Unit.BYTES);
+        metrics.putElapsed("Latency", start);
+        metrics.emit();
+        return response;
+    }
+
+    private Map<String, Object> respond(Object input, Context context, Metrics metrics) {
         try {
-            return processCalendars();
+            ApiGatewayRequest request = ApiGatewayRequest.from(input);
+            String calendar = calendarName(request);
+            if (calendarUrls(calendar).isEmpty()) {
+                return createErrorResponse(404, "Unknown calendar");
+            }
+            metrics.calendar(calendar);
+            DateWindow window;
+            try {
+                window = DateWindow.from(request, clock);
+            } catch (IllegalArgumentException e) {
+                return createErrorResponse(400, e.getMessage());
+            }
+            Instant deadline = deadline(context);
+            CombinedCalendar combinedCalendar = !cachesResponses()
+                ? currentCalendar(calendar, window, deadline, metrics)
+                : responseCache(calendar, window)
+                    .get(() -> processCalendarsAsync(calendar, window, deadline), outcome -> {
+                        metrics.property("Cache", outcome.name());
+                        metrics.putCount("CacheHit", outcome == ResponseCache.Outcome.MISS ? 0 : 1);
+                    });
+            Optional<String> syncToken = request.queryParameter(SYNC_TOKEN_PARAMETER);
+            if (syncToken.isPresent()) {
+                return createSyncResponse(syncHistories.computeIfAbsent(
+                        cacheKey(calendar, window), key -> new SyncHistory(MAX_SYNC_VERSIONS))
+                    .since(syncToken.get(), combinedCalendar), request, metrics);
+            }
+            boolean gzip = request.acceptsGzip()
+                && combinedCalendar.length() >= configuration.getCompressionThreshold();
+            boolean notModified = combinedCalendar.isNotModified(request);
+            metrics.putCount("NotModified", notModified ? 1 : 0);
+            if (notModified) {
+                return createResponse(304, combinedCalendar, gzip, false);
+            }
+            return createResponse(200, combinedCalendar, gzip, true);
         } catch (Exception e) {
             log.error("Error processing request: ", e);
             return createErrorResponse(500, "Internal Server Error");
         }
     }
 
-    private Map<String, Object> processCalendars() throws InterruptedException, ExecutionException {
-        List<String> calendarUrls = configuration.getCalendarUrls();
-        List<CompletableFuture<Calendar>> calendarFutures = fetchAndParseCalendarsAsync(
-            calendarUrls);
+    /**
+     * Whether {@code input} is the scheduled event that keeps the snapshot of the unbounded
+     * calendar fresh, rather than an API Gateway request.
+     */
+    private static boolean isPrewarmEvent(Object input) {
+        return input instanceof Map<?, ?> event && Boolean.TRUE.equals(
+            event.get(PREWARM_EVENT_KEY));
+    }
+
+    /**
+     * Returns the calendar a request names in its path, such as {@code family} for
+     * {@code /family.ics}, or {@link #DEFAULT_CALENDAR} if it names none.
+     */
+    private static String calendarName(ApiGatewayRequest request) {
+        return request.pathParameter(CALENDAR_PATH_PARAMETER)
+            .map(name -> name.endsWith(".ics") ? name.substring(0, name.length() - 4) : name)
+            .orElse(DEFAULT_CALENDAR);
+    }
+
+    /**
+     * The feeds of {@code calendar}, which are empty if no such calendar is configured.
+     */
+    private List<String> calendarUrls(String calendar) {
+        return calendar.equals(DEFAULT_CALENDAR)
+            ? configuration.getCalendarUrls()
+            : configuration.getCalendars().getOrDefault(calendar, List.of());
+    }
+
+    /**
+     * Identifies a calendar's window in the caches and snapshots. The default calendar keeps the
+     * window's own key, so that snapshots taken before calendars were named are still found.
+     */
+    private static String cacheKey(String calendar, DateWindow window) {
+        return calendar.equals(DEFAULT_CALENDAR) ? window.key() : calendar + "/" + window.key();
+    }
+
+    /**
+     * Rebuilds every calendar as requests without a date window are served it, and waits for
+     * their snapshots to be written before the container is frozen. The builds run together, so
+     * feeds that calendars share are fetched once.
+     */
+    private Map<String, Object> prewarm(Context context) {
+        DateWindow window = DateWindow.UNBOUNDED;
+        Instant deadline = deadline(context);
+        List<String> calendars = new ArrayList<>();
+        if (!configuration.getCalendarUrls().isEmpty()) {
+            calendars.add(DEFAULT_CALENDAR);
+        }
+        calendars.addAll(configuration.getCalendars().keySet());
+        Map<String, CompletableFuture<CombinedCalendar>> builds = new LinkedHashMap<>();
+        calendars.forEach(calendar -> builds.put(calendar,
+            processCalendarsAsync(calendar, window, deadline)));
+
+        Map<String, Object> etags = new LinkedHashMap<>();
+        builds.forEach((calendar, build) -> {
+            CombinedCalendar combinedCalendar = build.join();
+            if (cachesResponses()) {
+                responseCaches.computeIfAbsent(cacheKey(calendar, window),
+                    key -> new ResponseCache<>(responseCacheTtl, clock)).put(combinedCalendar);
+            }
+            log.info("Prewarmed calendar {} {}", calendar, combinedCalendar.etag());
+            etags.put(calendar.equals(DEFAULT_CALENDAR) ? "etag" : calendar,
+                combinedCalendar.etag());
+        });
+        snapshots.awaitWrites();
+        return etags;
+    }
+
+    /**
+     * Builds the calendar for {@code window}, unless this container has not built it before and
+     * there is a snapshot of it: then the snapshot is served and the calendar is rebuilt in the
+     * background. Only the unbounded window, which prewarming keeps fresh, has snapshots.
+     */
+    private CombinedCalendar currentCalendar(String calendar, DateWindow window, Instant deadline,
+        Metrics metrics) {
+        String key = cacheKey(calendar, window);
+        if (snapshots.isEnabled() && window.isUnbounded() && !lastCalendars.containsKey(key)) {
+            Optional<CombinedCalendar> snapshot = snapshots.readCalendar(key);
+            if (snapshot.isPresent()) {
+                metrics.property("Cache", "SNAPSHOT");
+                metrics.putCount("CacheHit", 1);
+                lastCalendars.putIfAbsent(key, snapshot.get());
+                processCalendarsAsync(calendar, window, Instant.MAX).exceptionally(e -> {
+                    log.warn("Refreshing calendar restored from snapshot failed", e);
+                    return null;
+                });
+                return snapshot.get();
+            }
+        }
+        return processCalendarsAsync(calendar, window, deadline).join();
+    }
+
+    /**
+     * Returns the response cache of a calendar's window, creating it if needed. A new cache of the
+     * unbounded window is seeded with its snapshot if there is one, so that the first request is
+     * answered straight away. The snapshot is read outside the lock of the cache map, so that
+     * requests for other windows do not wait for it.
+     */
+    private ResponseCache<CombinedCalendar> responseCache(String calendar, DateWindow window) {
+        String key = cacheKey(calendar, window);
+        ResponseCache<CombinedCalendar> cache = responseCaches.get(key);
+        if (cache != null) {
+            return cache;
+        }
+        ResponseCache<CombinedCalendar> created = new ResponseCache<>(responseCacheTtl, clock);
+        if (window.isUnbounded()) {
+            snapshots.readCalendar(key).ifPresent(snapshot -> {
+                lastCalendars.putIfAbsent(key, snapshot);
+                created.putStale(snapshot);
+            });
+        }
+        cache = responseCaches.putIfAbsent(key, created);
+        return cache == null ? created : cache;
+    }
+
+    /**
+     * Whether responses are served from the combined calendar cache rather than built per request.
+     */
+    private boolean cachesResponses() {
+        return !responseCacheTtl.isZero();
+    }
+
+    /**
+     * The time by which the sources must have been fetched, leaving the configured margin of the
+     * invocation for merging and serializing, or {@link Instant#MAX} when the remaining time is
+     * unknown.
+     */
+    private Instant deadline(Context context) {
+        int remainingMillis = context == null ? 0 : context.getRemainingTimeInMillis();
+        if (remainingMillis <= 0) {
+            return Instant.MAX;
+        }
+        return clock.instant().plusMillis(remainingMillis).minus(configuration.getDeadlineMargin());
+    }
+
+    /**
+     * Builds the combined calendar and writes the metrics of the build once it completes, which
+     * may be after the request that started it has been answered.
+     */
+    private CompletableFuture<CombinedCalendar> processCalendarsAsync(String calendar,
+        DateWindow window, Instant deadline) {
+        Metrics metrics = startMetrics("Build", calendar);
+        long start = System.nanoTime();
+        return mergeCalendarsAsync(calendar, window, deadline, metrics)
+            .thenApply(merged -> generateICS(calendar, window, merged, metrics))
+            .whenComplete((combined, error) -> {
+                metrics.putCount("Failed", error == null ? 0 : 1);
+                metrics.putElapsed("BuildTime", start);
+                metrics.emit();
+            });
+    }
+
+    /**
+     * Starts collecting the metrics of an operation on {@code calendar}, which the caller must
+     * emit.
+     */
+    private Metrics startMetrics(String operation, String calendar) {
+        Metrics metrics = metricsLogger.start(operation);
+        metrics.property("Engine", configuration.useSpliceEngine() ? "splice" : "ical4j");
+        metrics.calendar(calendar);
+        return metrics;
+    }
 
-        Calendar combinedCalendar = calendarFutures.stream()
-            .map(CompletableFuture::join)
-            .reduce(new Calendar(), this::combineCalendars);
+    /**
+     * Fetches and merges all sources of {@code calendar}, leaving the combined calendar
+     * unserialized. Events outside {@code window} are dropped before they are merged.
+     *
+     * <p>Sources are parsed under the calendar's projection, and cached separately for every
+     * projection, so that calendars sharing a feed under the same projection share its copy.
+     */
+    private CompletableFuture<MergedCalendar> mergeCalendarsAsync(String calendar,
+        DateWindow window, Instant deadline, Metrics metrics) {
+        List<String> calendarUrls = calendarUrls(calendar);
+        Projection projection = configuration.getProjection(calendar).orElse(Projection.NONE);
+        return configuration.useSpliceEngine()
+            ? spliceCalendarsAsync(calendarUrls, projection, window, deadline, metrics)
+            : combineCalendarsAsync(calendarUrls, projection, window, deadline, metrics);
+    }
 
-        combinedCalendar.withProdId("-//Stephen Matta//iCal4j 1.0//EN").withDefaults();
-        return generateICSResponse(combinedCalendar);
+    private CompletableFuture<MergedCalendar> combineCalendarsAsync(List<String> calendarUrls,
+        Projection projection, DateWindow window, Instant deadline, Metrics metrics) {
+        long start = System.nanoTime();
+        SourceCache<Calendar> cache = calendarCaches.computeIfAbsent(projection,
+            ignored -> new SourceCache<>());
+        return sourceFetcher.fetchAllAsync(calendarUrls, cache,
+            inputStream -> parseCalendar(inputStream, projection), deadline, metrics)
+            .thenApply(fetched -> {
+                metrics.putElapsed("FetchTime", start);
+                long mergeStart = System.nanoTime();
+                SourceFetcher.Result<Calendar> result = withinMergeBudget(calendarUrls, fetched,
+                    (url, calendar) -> cache.get(url).map(SourceCache.Entry::bytes).orElse(0L),
+                    metrics);
+                recordSourceCounts(calendarUrls, result, "Events",
+                    calendar -> calendar.getComponents(VEVENT).size(), metrics);
+                return combineCalendars(result.values(), window, result.report(), metrics,
+                    mergeStart);
+            });
     }
 
-    private List<CompletableFuture<Calendar>> fetchAndParseCalendarsAsync(
-        List<String> calendarUrls) {
-        return calendarUrls.stream()
-            .map(this::fetchAndParseCalendarAsync)
+    /**
+     * Merges the events of sources that have already been fetched and parsed, together with the
+     * timezones they refer to, into one calendar.
+     *
+     * @param mergeStart the value of {@link System#nanoTime()} the merge time is measured from
+     */
+    MergedCalendar combineCalendars(List<Calendar> calendars, DateWindow window,
+        MergeReport report, Metrics metrics, long mergeStart) {
+        List<CalendarComponent> events = calendars.stream()
+            .flatMap(calendar -> calendar.<CalendarComponent>getComponents(VEVENT).stream())
+            .filter(window::includes)
             .toList();
+        Deduplicated<CalendarComponent> deduplicated = deduplicate(events, EventVersion::of);
+        Map<String, CalendarComponent> sourceTimezones = new HashMap<>();
+        calendars.forEach(calendar -> calendar.<CalendarComponent>getComponents(VTIMEZONE)
+            .forEach(timezone -> timezone.getProperty(TZID).ifPresent(tzId ->
+                sourceTimezones.putIfAbsent(tzId.getValue(), timezone))));
+
+        List<CalendarComponent> components = new ArrayList<>(referencedTimezones(
+            deduplicated.events().stream().flatMap(CombineICSFunction::tzIds),
+            sourceTimezones, timezone -> timezone));
+        components.addAll(deduplicated.events());
+        Calendar combinedCalendar = new Calendar(new ComponentList<>(components));
+        combinedCalendar.withProdId(PROD_ID).withDefaults();
+        recordMerge(metrics, mergeStart, deduplicated, report);
+        return new MergedCalendar(
+            writer -> new CalendarOutputter().output(combinedCalendar, writer),
+            report.withDuplicatesDropped(deduplicated.dropped()));
     }
 
-    private CompletableFuture<Calendar> fetchAndParseCalendarAsync(String url) {
-        HttpRequest request = HttpRequest.newBuilder(URI.create(url)).build();
-        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream())
-            .thenApply(this::validateResponse)
-            .thenApply(response -> parseCalendar(response.body()))
-            .exceptionally(e -> {
-                throw new FetchCalendarException("Error fetching or parsing ICS from " + url, e);
+    private CompletableFuture<MergedCalendar> spliceCalendarsAsync(List<String> calendarUrls,
+        Projection projection, DateWindow window, Instant deadline, Metrics metrics) {
+        long start = System.nanoTime();
+        SourceCache<RawCalendar> cache = rawCalendarCaches.computeIfAbsent(projection,
+            ignored -> new SourceCache<>());
+        return sourceFetcher.fetchAllAsync(calendarUrls, cache,
+            inputStream -> extractRawCalendar(inputStream, projection), deadline, metrics)
+            .thenApply(fetched -> {
+                metrics.putElapsed("FetchTime", start);
+                long mergeStart = System.nanoTime();
+                SourceFetcher.Result<RawCalendar> result = withinMergeBudget(calendarUrls,
+                    fetched, (url, calendar) -> calendar.inMemorySize(), metrics);
+                recordSourceCounts(calendarUrls, result, "Events",
+                    calendar -> calendar.events().size(), metrics);
+                if (configuration.getSpillThreshold() > 0) {
+                    recordSourceCounts(calendarUrls, result, "SpilledEvents",
+                        RawCalendar::spilledEvents, metrics);
+                }
+                return spliceCalendars(result.values(), window, result.report(), metrics,
+                    mergeStart);
             });
     }
 
-    private HttpResponse<InputStream> validateResponse(HttpResponse<InputStream> response) {
-        if (response.statusCode() != 200) {
-            throw new FetchCalendarException("Failed to fetch ICS: HTTP " + response.statusCode());
+    /**
+     * Merges the raw events of sources that have already been fetched and extracted, together
+     * with the timezones they refer to, into one calendar.
+     *
+     * @param mergeStart the value of {@link System#nanoTime()} the merge time is measured from
+     */
+    MergedCalendar spliceCalendars(List<RawCalendar> calendars, DateWindow window,
+        MergeReport report, Metrics metrics, long mergeStart) {
+        List<RawEvent> events = calendars.stream()
+            .flatMap(calendar -> calendar.events().stream())
+            .filter(event -> window.includes(event.times()))
+            .toList();
+        Deduplicated<RawEvent> deduplicated = deduplicate(events, RawEvent::version);
+        Map<String, String> sourceTimezones = new HashMap<>();
+        calendars.forEach(calendar -> calendar.timezones().forEach(sourceTimezones::putIfAbsent));
+        List<String> timezones = referencedTimezones(deduplicated.events().stream()
+            .flatMap(event -> event.tzIds().stream()), sourceTimezones, VTimeZone::toString);
+        recordMerge(metrics, mergeStart, deduplicated, report);
+
+        return new MergedCalendar(
+            writer -> IcsSplicer.write(writer, PROD_ID, timezones, deduplicated.events()),
+            report.withDuplicatesDropped(deduplicated.dropped()));
+    }
+
+    /**
+     * Leaves the largest sources out of the merge until the rest fit in the merge budget, and
+     * fails the merge instead unless partial responses are enabled. The sources left out are
+     * reported as skipped.
+     *
+     * @param sizeOf how many bytes the value of the source at a URL takes up in memory
+     */
+    private <T> SourceFetcher.Result<T> withinMergeBudget(List<String> calendarUrls,
+        SourceFetcher.Result<T> result, ToLongBiFunction<String, T> sizeOf, Metrics metrics) {
+        long budget = configuration.getMergeMaxBytes();
+        if (budget == 0) {
+            return result;
         }
-        return response;
+        List<Integer> positions = new ArrayList<>();
+        for (int position = 1; position <= calendarUrls.size(); position++) {
+            if (!result.report().skippedSources().contains(position)) {
+                positions.add(position);
+            }
+        }
+        long[] sizes = new long[positions.size()];
+        long total = 0;
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = sizeOf.applyAsLong(calendarUrls.get(positions.get(i) - 1),
+                result.values().get(i));
+            total += sizes[i];
+        }
+        if (total <= budget) {
+            return result;
+        }
+        if (!configuration.isPartialResponseEnabled()) {
+            throw new MergeBudgetException("Sources of " + total
+                + " bytes do not fit in the merge budget of " + budget + " bytes");
+        }
+
+        List<Integer> largestFirst = IntStream.range(0, sizes.length).boxed()
+            .sorted(Comparator.comparingLong((Integer i) -> sizes[i]).reversed())
+            .toList();
+        Set<Integer> leftOut = new HashSet<>();
+        for (int i : largestFirst) {
+            if (total <= budget) {
+                break;
+            }
+            int position = positions.get(i);
+            String url = calendarUrls.get(position - 1);
+            log.warn("Leaving out source {} ({}) of {} bytes to fit in the merge budget of {} "
+                + "bytes", position, url, sizes[i], budget);
+            metrics.source(position, url).putCount("OverBudget", 1);
+            leftOut.add(i);
+            total -= sizes[i];
+        }
+        List<T> values = new ArrayList<>();
+        List<Integer> stale = new ArrayList<>(result.report().staleSources());
+        List<Integer> skipped = new ArrayList<>(result.report().skippedSources());
+        for (int i = 0; i < sizes.length; i++) {
+            if (leftOut.contains(i)) {
+                stale.remove(positions.get(i));
+                skipped.add(positions.get(i));
+            } else {
+                values.add(result.values().get(i));
+            }
+        }
+        Collections.sort(skipped);
+        return new SourceFetcher.Result<>(values,
+            new MergeReport(List.copyOf(stale), List.copyOf(skipped), 0));
+    }
+
+    /**
+     * Records a count for each source that could be used, such as how many events it contributed
+     * before filtering.
+     */
+    private <T> void recordSourceCounts(List<String> calendarUrls,
+        SourceFetcher.Result<T> result, String name, ToIntFunction<T> events, Metrics metrics) {
+        if (!metrics.isEnabled()) {
+            return;
+        }
+        int value = 0;
+        for (int position = 1; position <= calendarUrls.size(); position++) {
+            if (!result.report().skippedSources().contains(position)) {
+                metrics.source(position, calendarUrls.get(position - 1))
+                    .putCount(name, events.applyAsInt(result.values().get(value++)));
+            }
+        }
+    }
+
+    private static void recordMerge(Metrics metrics, long mergeStart,
+        Deduplicated<?> deduplicated, MergeReport report) {
+        metrics.putElapsed("MergeTime", mergeStart);
+        metrics.putCount("Events", deduplicated.events().size());
+        metrics.putCount("DuplicatesDropped", deduplicated.dropped());
+        metrics.putCount("StaleSources", report.staleSources().size());
+        metrics.putCount("SkippedSources", report.skippedSources().size());
+    }
+
+    /**
+     * Returns one VTIMEZONE for every TZID that {@code tzIds} lists, in the order each is first
+     * listed: the first definition found in the sources, or else the one the registry holds.
+     * TZIDs that neither knows are left for clients to resolve.
+     */
+    private <T> List<T> referencedTimezones(Stream<String> tzIds, Map<String, T> sourceTimezones,
+        Function<VTimeZone, T> fromRegistry) {
+        return tzIds.distinct()
+            .map(tzId -> Optional.ofNullable(sourceTimezones.get(tzId))
+                .or(() -> timeZoneRegistry.getVTimeZone(tzId).map(fromRegistry))
+                .orElseGet(() -> {
+                    log.debug("No VTIMEZONE for TZID {}", tzId);
+                    return null;
+                }))
+            .filter(Objects::nonNull)
+            .toList();
+    }
+
+    private static Stream<String> tzIds(CalendarComponent event) {
+        return event.getProperties().stream()
+            .flatMap(property -> property.getParameter(Parameter.TZID).stream())
+            .map(Parameter::getValue);
+    }
+
+    private <E> Deduplicated<E> deduplicate(List<E> events,
+        Function<E, EventVersion> versionOf) {
+        if (!configuration.isDeduplicationEnabled()) {
+            return new Deduplicated<>(events, 0);
+        }
+        Deduplicated<E> deduplicated = EventDeduplicator.deduplicate(events, versionOf);
+        if (deduplicated.dropped() > 0) {
+            log.info("Dropped {} duplicate events", deduplicated.dropped());
+        }
+        return deduplicated;
+    }
+
+    Calendar parseCalendar(InputStream inputStream) {
+        return parseCalendar(inputStream, Projection.NONE);
     }
 
-    private Calendar parseCalendar(InputStream inputStream) {
+    private Calendar parseCalendar(InputStream inputStream, Projection projection) {
         try (inputStream) {
-            Calendar calendar = new CalendarBuilder().build(inputStream);
+            if (parallelParser.isEnabled()) {
+                return parallelParser.parse(inputStream.readAllBytes(),
+                    chunk -> buildCalendar(chunk, projection));
+            }
+            return buildCalendar(inputStream, projection);
+        } catch (IOException e) {
+            throw new ParseCalendarException("Error parsing calendar", e);
+        }
+    }
+
+    private Calendar buildCalendar(InputStream inputStream, Projection projection) {
+        try {
+            Calendar calendar = calendarBuilder.build(
+                projection.filter(new InputStreamReader(inputStream, UTF_8)));
             ensureDtStamp(calendar);
             return calendar;
         } catch (IOException | ParserException e) {
@@ -98,6 +697,19 @@ public class CombineICSFunction implements RequestHandler<Object, Map<String, Ob
         }
     }
 
+    RawCalendar extractRawCalendar(InputStream inputStream) {
+        return extractRawCalendar(inputStream, Projection.NONE);
+    }
+
+    private RawCalendar extractRawCalendar(InputStream inputStream, Projection projection) {
+        try (inputStream) {
+            return IcsSplicer.extract(inputStream, projection, configuration.getSpillThreshold(),
+                SPILL_DIRECTORY);
+        } catch (IOException e) {
+            throw new ParseCalendarException("Error parsing calendar", e);
+        }
+    }
+
     private void ensureDtStamp(Calendar calendar) {
         calendar.getComponents(VEVENT).forEach(event -> {
             if (event.getProperty(DTSTAMP).isEmpty()) {
@@ -106,30 +718,87 @@ public class CombineICSFunction implements RequestHandler<Object, Map<String, Ob
         });
     }
 
-    private Calendar combineCalendars(Calendar combined, Calendar toAdd) {
-        toAdd.getComponents(VEVENT).forEach(combined::add);
-        return combined;
+    private CombinedCalendar generateICS(String calendarName, DateWindow window,
+        MergedCalendar merged, Metrics metrics) {
+        long start = System.nanoTime();
+        String body = render(merged.content());
+        metrics.putElapsed("SerializeTime", start);
+        return lastCalendars.compute(cacheKey(calendarName, window), (key, previous) -> {
+            CombinedCalendar calendar = CombinedCalendar.of(body, merged.report(), previous,
+                clock.instant());
+            // Windows are chosen by clients, so only the unbounded one is worth a snapshot
+            if (window.isUnbounded()
+                && (previous == null || !previous.etag().equals(calendar.etag()))) {
+                snapshots.writeCalendar(key, calendar);
+            }
+            metrics.put("OutputBytes", calendar.length(), Metrics.Unit.BYTES);
+            return calendar;
+        });
     }
 
-    private Map<String, Object> generateICSResponse(Calendar combinedCalendar) {
+    String render(CalendarContent content) {
         try (StringWriter writer = new StringWriter()) {
-            new CalendarOutputter().output(combinedCalendar, writer);
-            return createResponse(200, writer.toString());
+            content.writeTo(writer);
+            return writer.toString();
         } catch (IOException e) {
-            log.error("Error generating ICS response", e);
-            return createErrorResponse(500, "Error generating calendar content");
+            throw new GenerateCalendarException("Error generating calendar content", e);
         }
     }
 
-    private Map<String, Object> createResponse(int statusCode, String body) {
+    private Map<String, Object> createResponse(int statusCode, CombinedCalendar combinedCalendar,
+        boolean gzip, boolean withBody) {
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("Content-Type", "text/calendar");
+        headers.put("ETag", gzip ? combinedCalendar.gzipEtag() : combinedCalendar.etag());
+        headers.put("Last-Modified", combinedCalendar.lastModifiedHeader());
+        headers.put("Cache-Control", cacheControl());
+        headers.put("Vary", "Accept-Encoding");
+        if (gzip) {
+            headers.put("Content-Encoding", "gzip");
+        }
+        combinedCalendar.report().addHeaders(headers);
+        String body = !withBody ? "" : gzip
+            ? combinedCalendar.gzippedBase64()
+            : combinedCalendar.body();
         return Map.of(
             "statusCode", statusCode,
-            "headers", Map.of("Content-Type", "text/calendar"),
+            "headers", headers,
             "body", body,
-            "isBase64Encoded", false
+            "isBase64Encoded", gzip && withBody
         );
     }
 
+    /**
+     * Answers a request for the changes since a sync token with them as JSON.
+     */
+    private Map<String, Object> createSyncResponse(SyncHistory.Delta delta,
+        ApiGatewayRequest request, Metrics metrics) throws IOException {
+        metrics.putCount("FullResync", delta.fullResync() ? 1 : 0);
+        metrics.putCount("Upserted", delta.upserted().size());
+        metrics.putCount("Removed", delta.removed().size());
+        byte[] json = objectMapper.writeValueAsBytes(delta);
+        boolean gzip = request.acceptsGzip()
+            && json.length >= configuration.getCompressionThreshold();
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("Content-Type", "application/json");
+        headers.put("Cache-Control", "no-cache");
+        headers.put("Vary", "Accept-Encoding");
+        if (gzip) {
+            headers.put("Content-Encoding", "gzip");
+        }
+        return Map.of(
+            "statusCode", 200,
+            "headers", headers,
+            "body", gzip ? CombinedCalendar.gzipBase64(json) : new String(json, UTF_8),
+            "isBase64Encoded", gzip
+        );
+    }
+
+    private String cacheControl() {
+        Duration maxAge = configuration.getClientMaxAge();
+        return maxAge.isZero() ? "no-cache" : "max-age=" + maxAge.toSeconds();
+    }
+
     private Map<String, Object> createErrorResponse(int statusCode, String message) {
         return Map.of(
             "statusCode", statusCode,
@@ -139,20 +808,36 @@ public class CombineICSFunction implements RequestHandler<Object, Map<String, Ob
         );
     }
 
-    private static class FetchCalendarException extends RuntimeException {
+    /**
+     * A synchronized map that evicts its least recently used entry beyond {@code maxEntries}, so
+     * that clients asking for ever new windows cannot grow it without bound.
+     */
+    private static <K, V> Map<K, V> boundedMap(int maxEntries) {
+        return Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > maxEntries;
+            }
+        });
+    }
 
-        public FetchCalendarException(String message) {
-            super(message);
-        }
+    private static class ParseCalendarException extends RuntimeException {
 
-        public FetchCalendarException(String message, Throwable cause) {
+        public ParseCalendarException(String message, Throwable cause) {
             super(message, cause);
         }
     }
 
-    private static class ParseCalendarException extends RuntimeException {
+    private static class MergeBudgetException extends RuntimeException {
 
-        public ParseCalendarException(String message, Throwable cause) {
+        public MergeBudgetException(String message) {
+            super(message);
+        }
+    }
+
+    private static class GenerateCalendarException extends RuntimeException {
+
+        public GenerateCalendarException(String message, Throwable cause) {
             super(message, cause);
         }
     }
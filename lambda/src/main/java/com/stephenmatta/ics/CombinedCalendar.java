@@ -0,0 +1,158 @@
+package com.stephenmatta.ics;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The serialized combined calendar together with a strong entity tag derived from its content and
+ * the time that content was first produced. The gzip-compressed form is computed on first use and
+ * then shared by every response built from this calendar.
+ */
+final class CombinedCalendar {
+
+    private static final int ETAG_BYTES = 16;
+
+    private final String body;
+    private final String etag;
+    private final Instant lastModified;
+    private final int length;
+    private final MergeReport report;
+    private String gzippedBase64;
+
+    private CombinedCalendar(String body, String etag, Instant lastModified, int length,
+        MergeReport report) {
+        this.body = body;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.length = length;
+        this.report = report;
+    }
+
+    /**
+     * Creates the combined calendar for {@code body}, keeping the modification time of
+     * {@code previous} when the content has not changed since.
+     */
+    static CombinedCalendar of(String body, MergeReport report, CombinedCalendar previous,
+        Instant now) {
+        byte[] bytes = body.getBytes(UTF_8);
+        String etag = etagOf(bytes);
+        Instant lastModified = previous != null && previous.etag.equals(etag)
+            ? previous.lastModified
+            : now.truncatedTo(ChronoUnit.SECONDS);
+        return new CombinedCalendar(body, etag, lastModified, bytes.length, report);
+    }
+
+    /**
+     * Recreates a combined calendar from a snapshot, as it was when it was stored.
+     */
+    static CombinedCalendar restore(String body, MergeReport report, Instant lastModified) {
+        byte[] bytes = body.getBytes(UTF_8);
+        return new CombinedCalendar(body, etagOf(bytes), lastModified, bytes.length, report);
+    }
+
+    String body() {
+        return body;
+    }
+
+    String etag() {
+        return etag;
+    }
+
+    /**
+     * The entity tag of the gzip-compressed representation, which must differ from the
+     * uncompressed one for the tag to remain a strong validator.
+     */
+    String gzipEtag() {
+        return etag.substring(0, etag.length() - 1) + "-gzip\"";
+    }
+
+    /**
+     * What was left out of the calendar: stale or skipped sources and duplicate events.
+     */
+    MergeReport report() {
+        return report;
+    }
+
+    Instant lastModified() {
+        return lastModified;
+    }
+
+    /**
+     * The size of the body in bytes once encoded as UTF-8.
+     */
+    int length() {
+        return length;
+    }
+
+    synchronized String gzippedBase64() {
+        if (gzippedBase64 == null) {
+            gzippedBase64 = gzipBase64(body.getBytes(UTF_8));
+        }
+        return gzippedBase64;
+    }
+
+    static String gzipBase64(byte[] content) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length / 4);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+            gzip.write(content);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return Base64.getEncoder().encodeToString(bytes.toByteArray());
+    }
+
+    String lastModifiedHeader() {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(lastModified.atOffset(ZoneOffset.UTC));
+    }
+
+    /**
+     * Evaluates the request's conditional headers against this calendar. As in RFC 9110,
+     * {@code If-Modified-Since} is only considered when there is no {@code If-None-Match}.
+     */
+    boolean isNotModified(ApiGatewayRequest request) {
+        var ifNoneMatch = request.header("If-None-Match");
+        if (ifNoneMatch.isPresent()) {
+            return Arrays.stream(ifNoneMatch.get().split(","))
+                .map(String::trim)
+                .map(tag -> tag.startsWith("W/") ? tag.substring(2) : tag)
+                .anyMatch(tag -> tag.equals("*") || tag.equals(etag) || tag.equals(gzipEtag()));
+        }
+        return request.header("If-Modified-Since")
+            .map(CombinedCalendar::parseHttpDate)
+            .map(since -> !lastModified.isAfter(since))
+            .orElse(false);
+    }
+
+    private static Instant parseHttpDate(String value) {
+        try {
+            return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME)
+                .toInstant();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private static String etagOf(byte[] body) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(body);
+            return '"' + HexFormat.of().formatHex(digest, 0, ETAG_BYTES) + '"';
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
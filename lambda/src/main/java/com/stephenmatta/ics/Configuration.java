@@ -1,22 +1,505 @@
 package com.stephenmatta.ics;
 
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 public class Configuration {
 
+    private static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;
+    private static final Duration DEFAULT_DEADLINE_MARGIN = Duration.ofSeconds(1);
+    private static final String DEFAULT_REGION = "us-east-1";
+    private static final String DEFAULT_METRICS_NAMESPACE = "Masher";
+    private static final Duration DEFAULT_CIRCUIT_OPEN_DURATION = Duration.ofSeconds(30);
+    private static final Pattern CALENDAR_NAME = Pattern.compile("[A-Za-z0-9_-]+");
+
     private final List<String> calendarUrls;
+    private final Map<String, List<String>> calendars;
+    private final boolean spliceEngine;
+    private final Duration responseCacheTtl;
+    private final Duration clientMaxAge;
+    private final int compressionThreshold;
+    private final Duration sourceTimeout;
+    private final Duration deadlineMargin;
+    private final boolean hedgingEnabled;
+    private final boolean partialResponseEnabled;
+    private final int circuitBreakerFailures;
+    private final Duration circuitBreakerOpenDuration;
+    private final boolean deduplicationEnabled;
+    private final int parallelParseThreshold;
+    private final int sourceMaxBytes;
+    private final int sourceMaxEvents;
+    private final int mergeMaxBytes;
+    private final int spillThreshold;
+    private final Projection defaultProjection;
+    private final Map<String, Projection> projections;
+    private final List<String> preloadedTimezones;
+    private final URI snapshotLocation;
+    private final String snapshotRegion;
+    private final URI snapshotEndpoint;
+    private final boolean metricsEnabled;
+    private final String metricsNamespace;
 
     public Configuration() {
-        var urls = System.getenv("ICS_URLS");
-        if (urls == null || urls.isEmpty()) {
+        this(System.getenv());
+    }
+
+    /**
+     * Reads the configuration from the given environment variables instead of the process
+     * environment, for running the function outside Lambda.
+     */
+    public Configuration(Map<String, String> environment) {
+        var urls = environment.get("ICS_URLS");
+        calendars = parseCalendars(environment.get("ICS_CALENDARS"));
+        if ((urls == null || urls.isEmpty()) && calendars.isEmpty()) {
+            throw new IllegalArgumentException(
+                "Required environment variable ICS_URLS or ICS_CALENDARS is not set or is empty.");
+        }
+        calendarUrls = urls == null || urls.isEmpty()
+            ? List.of()
+            : Arrays.stream(urls.split(",")).map(String::trim).toList();
+        spliceEngine = parseEngine(environment.get("ICS_ENGINE"));
+        responseCacheTtl = parseSeconds(environment, "ICS_CACHE_TTL_SECONDS");
+        clientMaxAge = parseSeconds(environment, "ICS_CLIENT_MAX_AGE_SECONDS");
+        compressionThreshold = parseInt(environment, "ICS_GZIP_MIN_BYTES",
+            DEFAULT_COMPRESSION_THRESHOLD);
+        sourceTimeout = parseMillis(environment, "ICS_SOURCE_TIMEOUT_MS", Duration.ZERO);
+        deadlineMargin = parseMillis(environment, "ICS_DEADLINE_MARGIN_MS",
+            DEFAULT_DEADLINE_MARGIN);
+        hedgingEnabled = parseBoolean(environment, "ICS_HEDGE_SLOW_SOURCES");
+        partialResponseEnabled = parseBoolean(environment, "ICS_PARTIAL_RESPONSES");
+        circuitBreakerFailures = parseInt(environment, "ICS_CIRCUIT_FAILURES", 0);
+        var openSeconds = environment.get("ICS_CIRCUIT_OPEN_SECONDS");
+        circuitBreakerOpenDuration = openSeconds == null || openSeconds.isEmpty()
+            ? DEFAULT_CIRCUIT_OPEN_DURATION
+            : parseSeconds(environment, "ICS_CIRCUIT_OPEN_SECONDS");
+        deduplicationEnabled = parseBoolean(environment, "ICS_DEDUPLICATE");
+        parallelParseThreshold = parseInt(environment, "ICS_PARALLEL_PARSE_MIN_BYTES", 0);
+        sourceMaxBytes = parseInt(environment, "ICS_SOURCE_MAX_BYTES", 0);
+        sourceMaxEvents = parseInt(environment, "ICS_SOURCE_MAX_EVENTS", 0);
+        mergeMaxBytes = parseInt(environment, "ICS_MERGE_MAX_BYTES", 0);
+        spillThreshold = parseInt(environment, "ICS_SPILL_MIN_BYTES", 0);
+        if (spillThreshold > 0 && !spliceEngine) {
+            throw new IllegalArgumentException(
+                "Environment variable ICS_SPILL_MIN_BYTES requires ICS_ENGINE to be 'splice'.");
+        }
+        defaultProjection = parseProjection(environment, "ICS_PROJECTION");
+        projections = new LinkedHashMap<>();
+        for (String calendar : calendars.keySet()) {
+            String name = "ICS_PROJECTION_" + calendar.toUpperCase(Locale.ROOT).replace('-', '_');
+            projections.put(calendar, environment.containsKey(name)
+                ? parseProjection(environment, name)
+                : defaultProjection);
+        }
+        preloadedTimezones = parseList(environment.get("ICS_PRELOAD_TZIDS"));
+        snapshotLocation = parseSnapshotLocation(environment.get("ICS_SNAPSHOT_LOCATION"));
+        var region = environment.get("AWS_REGION");
+        snapshotRegion = region == null || region.isEmpty() ? DEFAULT_REGION : region;
+        var endpoint = environment.get("ICS_SNAPSHOT_ENDPOINT");
+        snapshotEndpoint = endpoint == null || endpoint.isEmpty()
+            ? URI.create("https://s3." + snapshotRegion + ".amazonaws.com")
+            : URI.create(endpoint.trim());
+        metricsEnabled = parseBoolean(environment, "ICS_METRICS", true);
+        var namespace = environment.get("ICS_METRICS_NAMESPACE");
+        metricsNamespace = namespace == null || namespace.isBlank()
+            ? DEFAULT_METRICS_NAMESPACE
+            : namespace.trim();
+    }
+
+    private static Duration parseSeconds(Map<String, String> environment, String name) {
+        var value = environment.get(name);
+        if (value == null || value.isEmpty()) {
+            return Duration.ZERO;
+        }
+        try {
+            long seconds = Long.parseLong(value.trim());
+            if (seconds < 0) {
+                throw new IllegalArgumentException(
+                    "Environment variable " + name + " must not be negative.");
+            }
+            return Duration.ofSeconds(seconds);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(
+                "Environment variable " + name + " must be a number of seconds.", e);
+        }
+    }
+
+    private static Duration parseMillis(Map<String, String> environment, String name,
+        Duration defaultValue) {
+        var value = environment.get(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        return Duration.ofMillis(parseInt(environment, name, 0));
+    }
+
+    private static boolean parseBoolean(Map<String, String> environment, String name) {
+        return parseBoolean(environment, name, false);
+    }
+
+    private static boolean parseBoolean(Map<String, String> environment, String name,
+        boolean defaultValue) {
+        var value = environment.get(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        if (value.equalsIgnoreCase("false")) {
+            return false;
+        }
+        if (value.equalsIgnoreCase("true")) {
+            return true;
+        }
+        throw new IllegalArgumentException(
+            "Environment variable " + name + " must be 'true' or 'false' but was '" + value
+                + "'.");
+    }
+
+    private static int parseInt(Map<String, String> environment, String name,
+        int defaultValue) {
+        var value = environment.get(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            int number = Integer.parseInt(value.trim());
+            if (number < 0) {
+                throw new IllegalArgumentException(
+                    "Environment variable " + name + " must not be negative.");
+            }
+            return number;
+        } catch (NumberFormatException e) {
             throw new IllegalArgumentException(
-                "Required environment variable ICS_URLS is not set or is empty.");
+                "Environment variable " + name + " must be a number.", e);
+        }
+    }
+
+    private static List<String> parseList(String value) {
+        if (value == null || value.isBlank()) {
+            return List.of();
+        }
+        return Arrays.stream(value.split(",")).map(String::trim).filter(s -> !s.isEmpty())
+            .toList();
+    }
+
+    /**
+     * Parses {@code name=url,url;name=url,...} into the URLs of each named calendar, in the order
+     * they are listed.
+     */
+    private static Map<String, List<String>> parseCalendars(String value) {
+        if (value == null || value.isBlank()) {
+            return Map.of();
+        }
+        Map<String, List<String>> calendars = new LinkedHashMap<>();
+        for (String calendar : value.split(";")) {
+            if (calendar.isBlank()) {
+                continue;
+            }
+            int equals = calendar.indexOf('=');
+            String name = equals < 0 ? "" : calendar.substring(0, equals).trim();
+            List<String> urls = equals < 0 ? List.of() : parseList(calendar.substring(equals + 1));
+            if (!CALENDAR_NAME.matcher(name).matches() || urls.isEmpty()) {
+                throw new IllegalArgumentException(
+                    "Environment variable ICS_CALENDARS must list name=url,url entries separated "
+                        + "by ';' with names of letters, digits, '-' and '_' but had '"
+                        + calendar.trim() + "'.");
+            }
+            if (calendars.put(name, urls) != null) {
+                throw new IllegalArgumentException(
+                    "Environment variable ICS_CALENDARS lists calendar '" + name + "' twice.");
+            }
+        }
+        return Collections.unmodifiableMap(calendars);
+    }
+
+    /**
+     * Parses {@code deny=NAME,NAME;maxDescription=N} or {@code allow=NAME,NAME;maxDescription=N},
+     * either part of which may be left out, and returns {@code null} for a projection that keeps
+     * everything.
+     */
+    private static Projection parseProjection(Map<String, String> environment, String name) {
+        var value = environment.get(name);
+        if (value == null || value.isBlank()) {
+            return null;
         }
-        calendarUrls = Arrays.stream(urls.split(",")).map(String::trim).toList();
+        Boolean allow = null;
+        Set<String> names = Set.of();
+        int maxDescriptionLength = 0;
+        for (String clause : value.split(";")) {
+            if (clause.isBlank()) {
+                continue;
+            }
+            int equals = clause.indexOf('=');
+            String key = equals < 0 ? clause.trim() : clause.substring(0, equals).trim();
+            String argument = equals < 0 ? "" : clause.substring(equals + 1);
+            if ((key.equals("allow") || key.equals("deny")) && allow == null) {
+                allow = key.equals("allow");
+                names = parseList(argument).stream()
+                    .map(listed -> listed.toUpperCase(Locale.ROOT))
+                    .collect(Collectors.toUnmodifiableSet());
+            } else if (key.equals("maxDescription")) {
+                maxDescriptionLength = parseInt(Map.of(name, argument), name, 0);
+            } else {
+                throw new IllegalArgumentException("Environment variable " + name
+                    + " must be 'allow=' or 'deny=' names, and 'maxDescription=' a length, "
+                    + "separated by ';' but had '" + clause.trim() + "'.");
+            }
+        }
+        Projection projection = new Projection(Boolean.TRUE.equals(allow), names,
+            maxDescriptionLength);
+        return projection.isIdentity() ? null : projection;
+    }
+
+    /**
+     * Accepts an {@code s3://bucket/prefix} URI, a {@code file:} URI or an absolute path, and
+     * returns S3 locations with a prefix that is either empty or ends in {@code /}.
+     */
+    private static URI parseSnapshotLocation(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        value = value.trim();
+        if (value.startsWith("s3://")) {
+            URI location = URI.create(value);
+            if (location.getHost() == null) {
+                throw new IllegalArgumentException(
+                    "Environment variable ICS_SNAPSHOT_LOCATION must name a bucket but was '"
+                        + value + "'.");
+            }
+            String prefix = location.getPath() == null ? "" : location.getPath();
+            return URI.create("s3://" + location.getHost() + (prefix.isEmpty() || prefix.endsWith(
+                "/") ? prefix : prefix + "/")).normalize();
+        }
+        if (value.startsWith("file:")) {
+            return Path.of(URI.create(value)).toUri();
+        }
+        if (value.startsWith("/")) {
+            return Path.of(value).toUri();
+        }
+        throw new IllegalArgumentException(
+            "Environment variable ICS_SNAPSHOT_LOCATION must be an s3:// URI, a file: URI or an "
+                + "absolute path but was '" + value + "'.");
+    }
+
+    private static boolean parseEngine(String engine) {
+        if (engine == null || engine.isEmpty() || engine.equalsIgnoreCase("ical4j")) {
+            return false;
+        }
+        if (engine.equalsIgnoreCase("splice")) {
+            return true;
+        }
+        throw new IllegalArgumentException(
+            "Environment variable ICS_ENGINE must be 'ical4j' or 'splice' but was '" + engine
+                + "'.");
     }
 
+    /**
+     * The feeds of the calendar served when a request names none, which is empty when only named
+     * calendars are configured.
+     */
     public List<String> getCalendarUrls() {
         return calendarUrls;
     }
+
+    /**
+     * The feeds of every named calendar, served at {@code /<name>.ics}. A feed may belong to
+     * several calendars, and is then fetched once for all of them.
+     */
+    public Map<String, List<String>> getCalendars() {
+        return calendars;
+    }
+
+    /**
+     * Whether calendars are combined by splicing the raw VEVENT text of each feed instead of
+     * parsing them into ical4j objects.
+     */
+    public boolean useSpliceEngine() {
+        return spliceEngine;
+    }
+
+    /**
+     * How long a combined calendar is served without revalidating it against the upstream feeds,
+     * or {@link Duration#ZERO} to build every response from scratch.
+     */
+    public Duration getResponseCacheTtl() {
+        return responseCacheTtl;
+    }
+
+    /**
+     * How long clients may use the combined calendar without revalidating it, or
+     * {@link Duration#ZERO} to have them revalidate on every poll.
+     */
+    public Duration getClientMaxAge() {
+        return clientMaxAge;
+    }
+
+    /**
+     * The smallest combined calendar, in bytes, that is gzip-compressed for clients that accept
+     * it. Below this the compression overhead outweighs the savings.
+     */
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * The longest a single upstream feed may take, or {@link Duration#ZERO} to give every feed
+     * whatever is left of the invocation.
+     */
+    public Duration getSourceTimeout() {
+        return sourceTimeout;
+    }
+
+    /**
+     * How much of the invocation's remaining time is kept back for merging and serializing once
+     * the feeds have been fetched.
+     */
+    public Duration getDeadlineMargin() {
+        return deadlineMargin;
+    }
+
+    /**
+     * Whether a second request is sent to a feed that is taking much longer than it usually does,
+     * using whichever response arrives first.
+     */
+    public boolean isHedgingEnabled() {
+        return hedgingEnabled;
+    }
+
+    /**
+     * Whether a feed that fails or runs out of time is replaced by its last good copy, or left out
+     * of the combined calendar, instead of failing the request.
+     */
+    public boolean isPartialResponseEnabled() {
+        return partialResponseEnabled;
+    }
+
+    /**
+     * How many consecutive failures of a feed stop it being fetched for a while, or 0 to always
+     * fetch every feed.
+     */
+    public int getCircuitBreakerFailures() {
+        return circuitBreakerFailures;
+    }
+
+    /**
+     * How long a failing feed is left alone before it is probed again. Each failed probe doubles
+     * this, up to sixteen times as long.
+     */
+    public Duration getCircuitBreakerOpenDuration() {
+        return circuitBreakerOpenDuration;
+    }
+
+    /**
+     * Whether an event that appears in more than one feed is emitted once, in its most recent
+     * version.
+     */
+    public boolean isDeduplicationEnabled() {
+        return deduplicationEnabled;
+    }
+
+    /**
+     * The smallest feed, in bytes, that the ical4j engine splits and parses on several threads,
+     * or 0, the default, to always parse feeds on a single thread. Turning this on buffers every
+     * feed in full before it is parsed, so it only pays off where the function has processors to
+     * spare for large feeds.
+     */
+    public int getParallelParseThreshold() {
+        return parallelParseThreshold;
+    }
+
+    /**
+     * The largest feed, in bytes, that is read, or 0 for no limit. Larger feeds fail as soon as
+     * they go over.
+     */
+    public int getSourceMaxBytes() {
+        return sourceMaxBytes;
+    }
+
+    /**
+     * The most VEVENTs a feed may have, or 0 for no limit. Feeds with more fail as soon as they
+     * go over.
+     */
+    public int getSourceMaxEvents() {
+        return sourceMaxEvents;
+    }
+
+    /**
+     * How many bytes of feeds a calendar may merge in memory, or 0 for no limit. Over this, the
+     * largest feeds are left out until the rest fit. Events spilled to disk do not count.
+     */
+    public int getMergeMaxBytes() {
+        return mergeMaxBytes;
+    }
+
+    /**
+     * How many bytes of a feed's events the splice engine keeps in memory before writing the rest
+     * to a file in the temporary directory, or 0 to keep every event in memory.
+     */
+    public int getSpillThreshold() {
+        return spillThreshold;
+    }
+
+    /**
+     * Which properties and subcomponents of its events a calendar keeps, and how long their
+     * DESCRIPTIONs may be: a named calendar's own {@code ICS_PROJECTION_<NAME>}, or else
+     * {@code ICS_PROJECTION}. Empty when events are kept as they are.
+     */
+    Optional<Projection> getProjection(String calendar) {
+        return Optional.ofNullable(projections.getOrDefault(calendar, defaultProjection));
+    }
+
+    /**
+     * The TZIDs loaded from the tz database when the function starts, so that the first feeds to
+     * use them do not have to.
+     */
+    public List<String> getPreloadedTimezones() {
+        return preloadedTimezones;
+    }
+
+    /**
+     * Where the combined calendars and the upstream feeds are kept so that a cold start can serve
+     * them straight away: an {@code s3://bucket/prefix/} or a {@code file:} URI.
+     */
+    public Optional<URI> getSnapshotLocation() {
+        return Optional.ofNullable(snapshotLocation);
+    }
+
+    /**
+     * The region S3 requests for snapshots are signed for, that of the function unless set.
+     */
+    public String getSnapshotRegion() {
+        return snapshotRegion;
+    }
+
+    /**
+     * The S3 endpoint snapshots are read from and written to, which may be any S3-compatible
+     * store.
+     */
+    public URI getSnapshotEndpoint() {
+        return snapshotEndpoint;
+    }
+
+    /**
+     * Whether request, build and per-source metrics are logged in CloudWatch Embedded Metric
+     * Format. On unless turned off.
+     */
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
+    /**
+     * The CloudWatch namespace metrics are published under.
+     */
+    public String getMetricsNamespace() {
+        return metricsNamespace;
+    }
 }
@@ -0,0 +1,176 @@
+package com.stephenmatta.ics;
+
+import java.time.Clock;
+import java.time.DateTimeException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.temporal.TemporalAmount;
+import java.util.Optional;
+import net.fortuna.ical4j.model.Recur;
+import net.fortuna.ical4j.model.component.CalendarComponent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The span of time a client asked for with the {@code from}/{@code to} or
+ * {@code pastDays}/{@code futureDays} query parameters. An event is in the window when any of
+ * its occurrences overlaps it; events whose times cannot be read are always kept.
+ */
+final class DateWindow {
+
+    private static final Logger log = LoggerFactory.getLogger(DateWindow.class);
+
+    static final DateWindow UNBOUNDED = new DateWindow(Instant.MIN, Instant.MAX, "");
+
+    private final Instant start;
+    private final Instant end;
+    private final String key;
+
+    private DateWindow(Instant start, Instant end, String key) {
+        this.start = start;
+        this.end = end;
+        this.key = key;
+    }
+
+    /**
+     * Reads the window from the request. {@code from} and {@code to} are ISO dates or date-times,
+     * a date-only {@code to} including that whole day; {@code pastDays} and {@code futureDays}
+     * count whole days back and forward from now.
+     *
+     * @throws IllegalArgumentException if the parameters are malformed or contradictory
+     */
+    static DateWindow from(ApiGatewayRequest request, Clock clock) {
+        Optional<String> from = request.queryParameter("from");
+        Optional<String> to = request.queryParameter("to");
+        Optional<String> pastDays = request.queryParameter("pastDays");
+        Optional<String> futureDays = request.queryParameter("futureDays");
+        if (from.isEmpty() && to.isEmpty() && pastDays.isEmpty() && futureDays.isEmpty()) {
+            return UNBOUNDED;
+        }
+        if (from.isPresent() && pastDays.isPresent() || to.isPresent() && futureDays.isPresent()) {
+            throw new IllegalArgumentException(
+                "Use either from/to or pastDays/futureDays for each end of the window.");
+        }
+
+        Instant now = clock.instant();
+        Instant start = from.map(value -> parseInstant("from", value, false))
+            .or(() -> pastDays.map(value -> now.minus(parseDays("pastDays", value))))
+            .orElse(Instant.MIN);
+        Instant end = to.map(value -> parseInstant("to", value, true))
+            .or(() -> futureDays.map(value -> now.plus(parseDays("futureDays", value))))
+            .orElse(Instant.MAX);
+        if (!start.isBefore(end)) {
+            throw new IllegalArgumentException("The start of the window must be before its end.");
+        }
+
+        String key = from.map(value -> "from=" + value).orElse("")
+            + pastDays.map(value -> "pastDays=" + value).orElse("") + "&"
+            + to.map(value -> "to=" + value).orElse("")
+            + futureDays.map(value -> "futureDays=" + value).orElse("");
+        return new DateWindow(start, end, key);
+    }
+
+    private static Instant parseInstant(String name, String value, boolean endOfDay) {
+        try {
+            if (value.length() == 10) {
+                LocalDate date = LocalDate.parse(value);
+                return (endOfDay ? date.plusDays(1) : date).atStartOfDay(ZoneOffset.UTC)
+                    .toInstant();
+            }
+            return OffsetDateTime.parse(value).toInstant();
+        } catch (DateTimeException e) {
+            throw new IllegalArgumentException(
+                "Query parameter " + name + " must be an ISO date or date-time.", e);
+        }
+    }
+
+    private static Duration parseDays(String name, String value) {
+        try {
+            int days = Integer.parseInt(value.trim());
+            if (days < 0) {
+                throw new IllegalArgumentException(
+                    "Query parameter " + name + " must not be negative.");
+            }
+            return Duration.ofDays(days);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(
+                "Query parameter " + name + " must be a number of days.", e);
+        }
+    }
+
+    boolean isUnbounded() {
+        return this == UNBOUNDED;
+    }
+
+    /**
+     * Identifies the window as requested, for keying cached responses. Relative windows keep
+     * their key as they move with time.
+     */
+    String key() {
+        return key;
+    }
+
+    boolean includes(CalendarComponent event) {
+        return isUnbounded() || includes(EventTimes.of(event));
+    }
+
+    boolean includes(EventTimes times) {
+        if (isUnbounded() || times.isUnknown()) {
+            return true;
+        }
+        try {
+            Optional<ZonedDateTime> eventStart = times.start();
+            if (eventStart.isEmpty()) {
+                return true;
+            }
+            TemporalAmount length = times.length(eventStart.get());
+            if (overlaps(eventStart.get(), length)
+                || times.originalStart().map(original -> overlaps(original, length))
+                .orElse(false)) {
+                return true;
+            }
+            String rule = times.recurrenceRule();
+            return rule != null && hasOccurrenceInWindow(rule, eventStart.get(), length);
+        } catch (RuntimeException e) {
+            log.debug("Keeping event whose times cannot be evaluated: {}", times, e);
+            return true;
+        }
+    }
+
+    private boolean overlaps(ZonedDateTime occurrenceStart, TemporalAmount length) {
+        Instant begin = occurrenceStart.toInstant();
+        Instant finish = occurrenceStart.plus(length).toInstant();
+        if (finish.equals(begin)) {
+            return !begin.isBefore(start) && begin.isBefore(end);
+        }
+        return begin.isBefore(end) && finish.isAfter(start);
+    }
+
+    /**
+     * Expands the rule from {@code seed} until the first occurrence that overlaps the window. An
+     * open-ended window is searched for a century.
+     */
+    private boolean hasOccurrenceInWindow(String rule, ZonedDateTime seed,
+        TemporalAmount length) {
+        ZonedDateTime periodStart = seed;
+        if (!start.equals(Instant.MIN)) {
+            ZonedDateTime windowStart = ZonedDateTime.ofInstant(start, seed.getZone())
+                .minus(length);
+            if (windowStart.isAfter(seed)) {
+                periodStart = windowStart;
+            }
+        }
+        ZonedDateTime periodEnd = end.equals(Instant.MAX)
+            ? periodStart.plusYears(100)
+            : ZonedDateTime.ofInstant(end, seed.getZone());
+        if (!periodStart.isBefore(periodEnd)) {
+            return false;
+        }
+        return new Recur<ZonedDateTime>(rule).getDatesAsStream(seed, periodStart, periodEnd, -1)
+            .anyMatch(occurrence -> overlaps(occurrence, length));
+    }
+}
@@ -0,0 +1,196 @@
+package com.stephenmatta.ics;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static net.fortuna.ical4j.model.Property.LAST_MODIFIED;
+import static net.fortuna.ical4j.model.Property.RECURRENCE_ID;
+import static net.fortuna.ical4j.model.Property.SEQUENCE;
+import static net.fortuna.ical4j.model.Property.UID;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+import net.fortuna.ical4j.model.Property;
+import net.fortuna.ical4j.model.component.CalendarComponent;
+
+/**
+ * Drops events that appear in more than one feed, identified by UID and RECURRENCE-ID, keeping the
+ * version with the highest SEQUENCE and, between equal sequences, the latest LAST-MODIFIED. Events
+ * without a UID are always kept.
+ *
+ * <p>Keys are indexed by a 64-bit hash in a primitive open-addressing table, so the index costs two
+ * array slots per distinct event rather than a map entry and a key string; the key itself is only
+ * compared when two hashes collide.
+ */
+final class EventDeduplicator {
+
+    private EventDeduplicator() {
+    }
+
+    static <E> Deduplicated<E> deduplicate(List<E> events, Function<E, EventVersion> versionOf) {
+        List<E> kept = new ArrayList<>(events.size());
+        List<EventVersion> keptVersions = new ArrayList<>(events.size());
+        EventKeyIndex index = new EventKeyIndex(events.size());
+        int dropped = 0;
+        for (E event : events) {
+            EventVersion version = versionOf.apply(event);
+            if (version.uid() == null) {
+                kept.add(event);
+                keptVersions.add(version);
+                continue;
+            }
+            long hash = version.keyHash();
+            int position = index.find(hash, candidate -> keptVersions.get(candidate)
+                .hasSameKey(version));
+            if (position < 0) {
+                index.put(hash, kept.size());
+                kept.add(event);
+                keptVersions.add(version);
+                continue;
+            }
+            dropped++;
+            if (version.isNewerThan(keptVersions.get(position))) {
+                kept.set(position, event);
+                keptVersions.set(position, version);
+            }
+        }
+        return new Deduplicated<>(dropped == 0 ? events : kept, dropped);
+    }
+
+    /**
+     * The events left after deduplication, in the order their first copy appeared.
+     */
+    record Deduplicated<E>(List<E> events, int dropped) {
+
+    }
+
+    /**
+     * What identifies an event across feeds and orders its versions.
+     */
+    record EventVersion(String uid, String recurrenceId, int sequence, String lastModified) {
+
+        static EventVersion of(CalendarComponent event) {
+            return new EventVersion(value(event, UID), value(event, RECURRENCE_ID),
+                parseSequence(value(event, SEQUENCE)), value(event, LAST_MODIFIED));
+        }
+
+        private static String value(CalendarComponent event, String name) {
+            return event.getProperty(name).map(Property::getValue).orElse(null);
+        }
+
+        static int parseSequence(String value) {
+            if (value == null) {
+                return 0;
+            }
+            try {
+                return Integer.parseInt(value.strip());
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+
+        boolean hasSameKey(EventVersion other) {
+            return uid.equals(other.uid) && Objects.equals(recurrenceId, other.recurrenceId);
+        }
+
+        /**
+         * Whether this version supersedes {@code other}. LAST-MODIFIED is always in UTC, so its
+         * values order as strings.
+         */
+        boolean isNewerThan(EventVersion other) {
+            if (sequence != other.sequence) {
+                return sequence > other.sequence;
+            }
+            if (lastModified == null) {
+                return false;
+            }
+            return other.lastModified == null || lastModified.compareTo(other.lastModified) > 0;
+        }
+
+        /**
+         * FNV-1a over the UTF-8 bytes of the UID and RECURRENCE-ID.
+         */
+        long keyHash() {
+            long hash = 0xcbf29ce484222325L;
+            hash = mix(hash, uid);
+            hash = (hash ^ 0xff) * 0x100000001b3L;
+            return recurrenceId == null ? hash : mix(hash, recurrenceId);
+        }
+
+        private static long mix(long hash, String value) {
+            for (byte b : value.getBytes(UTF_8)) {
+                hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+            }
+            return hash;
+        }
+    }
+
+    /**
+     * Maps key hashes to positions in the list of kept events with linear probing. Colliding
+     * hashes occupy consecutive slots, so a lookup checks every slot with the same hash until an
+     * empty one.
+     */
+    private static final class EventKeyIndex {
+
+        private static final int EMPTY = -1;
+
+        private long[] hashes;
+        private int[] positions;
+        private int size;
+
+        EventKeyIndex(int expectedSize) {
+            int capacity = Integer.highestOneBit(Math.max(16, expectedSize * 2 - 1)) << 1;
+            hashes = new long[capacity];
+            positions = new int[capacity];
+            Arrays.fill(positions, EMPTY);
+        }
+
+        int find(long hash, IntPredicate matches) {
+            int mask = positions.length - 1;
+            for (int slot = spread(hash) & mask; positions[slot] != EMPTY;
+                slot = (slot + 1) & mask) {
+                if (hashes[slot] == hash && matches.test(positions[slot])) {
+                    return positions[slot];
+                }
+            }
+            return -1;
+        }
+
+        void put(long hash, int position) {
+            if (2 * (size + 1) > positions.length) {
+                resize();
+            }
+            insert(hash, position);
+            size++;
+        }
+
+        private void insert(long hash, int position) {
+            int mask = positions.length - 1;
+            int slot = spread(hash) & mask;
+            while (positions[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            hashes[slot] = hash;
+            positions[slot] = position;
+        }
+
+        private void resize() {
+            long[] oldHashes = hashes;
+            int[] oldPositions = positions;
+            hashes = new long[oldHashes.length * 2];
+            positions = new int[oldPositions.length * 2];
+            Arrays.fill(positions, EMPTY);
+            for (int slot = 0; slot < oldPositions.length; slot++) {
+                if (oldPositions[slot] != EMPTY) {
+                    insert(oldHashes[slot], oldPositions[slot]);
+                }
+            }
+        }
+
+        private static int spread(long hash) {
+            return (int) (hash ^ (hash >>> 32));
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.stephenmatta.ics;
+
+import static net.fortuna.ical4j.model.Property.DTEND;
+import static net.fortuna.ical4j.model.Property.DTSTART;
+import static net.fortuna.ical4j.model.Property.DURATION;
+import static net.fortuna.ical4j.model.Property.RDATE;
+import static net.fortuna.ical4j.model.Property.RECURRENCE_ID;
+import static net.fortuna.ical4j.model.Property.RRULE;
+
+import java.time.DateTimeException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.Period;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAmount;
+import java.util.Optional;
+import net.fortuna.ical4j.model.Property;
+import net.fortuna.ical4j.model.TemporalAmountAdapter;
+import net.fortuna.ical4j.model.component.CalendarComponent;
+
+/**
+ * The unfolded content lines of an event that determine when it takes place, shared by both
+ * engines so that they filter events identically. Any of them may be {@code null}.
+ *
+ * <p>Floating times, and times in a zone Java does not know, are read as UTC.
+ */
+record EventTimes(String dtStart, String dtEnd, String duration, String rrule, boolean hasRdate,
+                  String recurrenceId) {
+
+    static final EventTimes NONE = new EventTimes(null, null, null, null, false, null);
+
+    private static final DateTimeFormatter DATE = DateTimeFormatter.BASIC_ISO_DATE;
+    private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern(
+        "yyyyMMdd'T'HHmmss");
+
+    static EventTimes of(CalendarComponent event) {
+        return new EventTimes(line(event, DTSTART), line(event, DTEND), line(event, DURATION),
+            line(event, RRULE), event.getProperty(RDATE).isPresent(), line(event, RECURRENCE_ID));
+    }
+
+    private static String line(CalendarComponent event, String name) {
+        return event.getProperty(name).map(Property::toString).map(String::strip).orElse(null);
+    }
+
+    /**
+     * Whether the occurrences of the event cannot be worked out from these lines, in which case
+     * it is kept whatever the window.
+     */
+    boolean isUnknown() {
+        return dtStart == null || hasRdate;
+    }
+
+    Optional<ZonedDateTime> start() {
+        return parseDateTime(dtStart);
+    }
+
+    Optional<ZonedDateTime> originalStart() {
+        return parseDateTime(recurrenceId);
+    }
+
+    /**
+     * How long each occurrence lasts: until DTEND, for DURATION, or one day for all-day events.
+     */
+    TemporalAmount length(ZonedDateTime start) {
+        Optional<ZonedDateTime> end = parseDateTime(dtEnd);
+        if (end.isPresent()) {
+            return Duration.between(start, end.get());
+        }
+        if (duration != null) {
+            return TemporalAmountAdapter.parse(IcsSplicer.propertyValue(duration)).getDuration();
+        }
+        return isDate(dtStart) ? Period.ofDays(1) : Duration.ZERO;
+    }
+
+    /**
+     * The recurrence rule, with a date-only UNTIL widened to the end of that day since ical4j
+     * cannot compare it to the date-times of the occurrences.
+     */
+    String recurrenceRule() {
+        if (rrule == null) {
+            return null;
+        }
+        StringBuilder rule = new StringBuilder();
+        for (String part : IcsSplicer.propertyValue(rrule).split(";")) {
+            if (!rule.isEmpty()) {
+                rule.append(';');
+            }
+            if (part.regionMatches(true, 0, "UNTIL=", 0, 6) && part.indexOf('T', 6) < 0) {
+                rule.append(part).append("T235959Z");
+            } else {
+                rule.append(part);
+            }
+        }
+        return rule.toString();
+    }
+
+    private static Optional<ZonedDateTime> parseDateTime(String line) {
+        if (line == null) {
+            return Optional.empty();
+        }
+        String value = IcsSplicer.propertyValue(line).strip();
+        try {
+            if (isDate(line)) {
+                return Optional.of(LocalDate.parse(value, DATE).atStartOfDay(ZoneOffset.UTC));
+            }
+            if (value.endsWith("Z")) {
+                return Optional.of(LocalDateTime.parse(value.substring(0, value.length() - 1),
+                    DATE_TIME).atZone(ZoneOffset.UTC));
+            }
+            return Optional.of(LocalDateTime.parse(value, DATE_TIME).atZone(zone(line)));
+        } catch (DateTimeException e) {
+            return Optional.empty();
+        }
+    }
+
+    private static boolean isDate(String line) {
+        if (line == null) {
+            return false;
+        }
+        String value = IcsSplicer.propertyValue(line).strip();
+        return value.length() == 8 || parameter(line, "VALUE").filter("DATE"::equalsIgnoreCase)
+            .isPresent();
+    }
+
+    private static ZoneId zone(String line) {
+        try {
+            return parameter(line, "TZID").<ZoneId>map(ZoneId::of).orElse(ZoneOffset.UTC);
+        } catch (DateTimeException e) {
+            return ZoneOffset.UTC;
+        }
+    }
+
+    private static Optional<String> parameter(String line, String name) {
+        String parameters = line.substring(0,
+            line.length() - IcsSplicer.propertyValue(line).length());
+        for (String parameter : parameters.split(";")) {
+            int equals = parameter.indexOf('=');
+            if (equals > 0 && parameter.substring(0, equals).equalsIgnoreCase(name)) {
+                String value = parameter.substring(equals + 1);
+                if (value.endsWith(":")) {
+                    value = value.substring(0, value.length() - 1);
+                }
+                return Optional.of(value.replace("\"", ""));
+            }
+        }
+        return Optional.empty();
+    }
+}
@@ -0,0 +1,46 @@
+package com.stephenmatta.ics;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * Keeps snapshots as files below a directory, such as {@code /tmp} or a mounted volume. Values are
+ * written to a temporary file first and then moved into place.
+ */
+final class FileSnapshotStore implements SnapshotStore {
+
+    private final Path directory;
+
+    FileSnapshotStore(Path directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public Optional<byte[]> read(String key) throws IOException {
+        try {
+            return Optional.of(Files.readAllBytes(directory.resolve(key)));
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public void write(String key, byte[] value) throws IOException {
+        Path file = directory.resolve(key);
+        Files.createDirectories(file.getParent());
+        Path temporary = Files.createTempFile(file.getParent(), file.getFileName().toString(),
+            ".tmp");
+        try {
+            Files.write(temporary, value);
+            Files.move(temporary, file, ATOMIC_MOVE, REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+}
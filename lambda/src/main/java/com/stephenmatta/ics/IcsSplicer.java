@@ -0,0 +1,401 @@
+package com.stephenmatta.ics;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.stephenmatta.ics.EventDeduplicator.EventVersion;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Combines calendars by copying the raw text of their VEVENT and VTIMEZONE components instead of
+ * building the ical4j object model. Only what is needed to stay equivalent to the ical4j engine is
+ * unfolded: the UID of each event, whether it carries a DTSTAMP, the properties that say when it
+ * takes place, those that order its versions, and the TZID of each timezone.
+ */
+final class IcsSplicer {
+
+    private static final String CRLF = "\r\n";
+    private static final DateTimeFormatter DTSTAMP_FORMAT = DateTimeFormatter.ofPattern(
+        "yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+
+    private IcsSplicer() {
+    }
+
+    static RawCalendar extract(InputStream inputStream) throws IOException {
+        return extract(inputStream, Projection.NONE, 0, null);
+    }
+
+    /**
+     * Extracts what {@code projection} keeps of a feed, keeping the text of its events in memory
+     * until it adds up to more than {@code spillThreshold} characters, and writing the text of
+     * every later event to a spill file in {@code spillDirectory}.
+     *
+     * @param spillThreshold how much event text is kept in memory, or 0 to keep all of it
+     */
+    static RawCalendar extract(InputStream inputStream, Projection projection, int spillThreshold,
+        Path spillDirectory) throws IOException {
+        BufferedReader reader = new BufferedReader(
+            projection.filter(new InputStreamReader(inputStream, UTF_8)));
+        Map<String, String> timezones = new LinkedHashMap<>();
+        List<RawEvent> events = new ArrayList<>();
+        EventScanner scanner = null;
+        TimezoneScanner timezoneScanner = null;
+        long inMemory = 0;
+        SpillFile spillFile = null;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (scanner != null) {
+                if (scanner.accept(line)) {
+                    RawEvent event = scanner.toRawEvent();
+                    inMemory += event.text().length();
+                    if (spillThreshold > 0 && inMemory > spillThreshold) {
+                        if (spillFile == null) {
+                            spillFile = SpillFile.create(spillDirectory);
+                        }
+                        event = event.withContent(spillFile.append(event.text()));
+                    }
+                    events.add(event);
+                    scanner = null;
+                }
+            } else if (timezoneScanner != null) {
+                if (timezoneScanner.accept(line)) {
+                    timezoneScanner.addTo(timezones);
+                    timezoneScanner = null;
+                }
+            } else if (line.strip().equalsIgnoreCase("BEGIN:VEVENT")) {
+                scanner = new EventScanner(line);
+            } else if (line.strip().equalsIgnoreCase("BEGIN:VTIMEZONE")) {
+                timezoneScanner = new TimezoneScanner(line);
+            }
+        }
+        return new RawCalendar(timezones, events);
+    }
+
+    static List<RawEvent> extractEvents(InputStream inputStream) throws IOException {
+        return extract(inputStream).events();
+    }
+
+    /**
+     * Writes a calendar of the given VTIMEZONE and VEVENT components, both as raw text. Events
+     * that were spilled are read back from their file one at a time.
+     */
+    static void write(Writer writer, String prodId, Iterable<String> timezones,
+        Iterable<RawEvent> events) throws IOException {
+        writer.write("BEGIN:VCALENDAR" + CRLF);
+        writer.write("PRODID:" + prodId + CRLF);
+        writer.write("CALSCALE:GREGORIAN" + CRLF);
+        writer.write("VERSION:2.0" + CRLF);
+        for (String timezone : timezones) {
+            writer.write(timezone);
+        }
+        for (RawEvent event : events) {
+            writer.write(event.text());
+        }
+        writer.write("END:VCALENDAR" + CRLF);
+    }
+
+    /**
+     * Returns the name of the property on a content line, or {@code null} for a folded
+     * continuation line.
+     */
+    static String propertyName(String line) {
+        if (line.isEmpty() || line.charAt(0) == ' ' || line.charAt(0) == '\t') {
+            return null;
+        }
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == ':' || c == ';') {
+                return line.substring(0, i);
+            }
+        }
+        return line;
+    }
+
+    /**
+     * Returns the value of an unfolded content line, skipping over parameters whose quoted values
+     * may themselves contain colons.
+     */
+    static String propertyValue(String line) {
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ':' && !quoted) {
+                return line.substring(i + 1);
+            }
+        }
+        return "";
+    }
+
+    /**
+     * Returns the TZID parameter of a content line, or {@code null} if it has none.
+     */
+    static String tzIdParameter(String line) {
+        boolean quoted = false;
+        int parameterStart = -1;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (!quoted && (c == ';' || c == ':')) {
+                if (parameterStart >= 0
+                    && line.regionMatches(true, parameterStart, "TZID=", 0, 5)) {
+                    return unquote(line.substring(parameterStart + 5, i));
+                }
+                if (c == ':') {
+                    return null;
+                }
+                parameterStart = i + 1;
+            }
+        }
+        return null;
+    }
+
+    private static String unquote(String value) {
+        return value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")
+            ? value.substring(1, value.length() - 1)
+            : value;
+    }
+
+    /**
+     * The VTIMEZONE components of a feed, keyed by TZID, and its VEVENT components.
+     */
+    record RawCalendar(Map<String, String> timezones, List<RawEvent> events) {
+
+        /**
+         * How many characters of the feed's text are held in memory, which is about as many bytes
+         * as the feed took up.
+         */
+        long inMemorySize() {
+            long size = 0;
+            for (String timezone : timezones.values()) {
+                size += timezone.length();
+            }
+            for (RawEvent event : events) {
+                if (!event.content().isSpilled()) {
+                    size += event.text().length();
+                }
+            }
+            return size;
+        }
+
+        int spilledEvents() {
+            return (int) events.stream().filter(event -> event.content().isSpilled()).count();
+        }
+    }
+
+    /**
+     * @param content the raw text of the event, from its BEGIN:VEVENT to its END:VEVENT line
+     * @param tzIds   the TZIDs the event's own properties refer to, in order and without repeats
+     */
+    record RawEvent(String uid, EventText content, EventTimes times, int sequence,
+                    String lastModified, List<String> tzIds) {
+
+        String text() {
+            return content.text();
+        }
+
+        RawEvent withContent(EventText content) {
+            return new RawEvent(uid, content, times, sequence, lastModified, tzIds);
+        }
+
+        EventVersion version() {
+            return new EventVersion(uid, times.recurrenceId() == null ? null
+                : propertyValue(times.recurrenceId()), sequence, lastModified);
+        }
+    }
+
+    /**
+     * The raw text of an event, which is either held in memory or read back from a spill file
+     * whenever it is asked for.
+     */
+    interface EventText {
+
+        String text();
+
+        boolean isSpilled();
+    }
+
+    private record InMemoryText(String text) implements EventText {
+
+        @Override
+        public boolean isSpilled() {
+            return false;
+        }
+    }
+
+    private static class EventScanner {
+
+        private static final Set<String> UNFOLDED_PROPERTIES = Set.of("UID", "DTSTART", "DTEND",
+            "DURATION", "RRULE", "RECURRENCE-ID", "SEQUENCE", "LAST-MODIFIED");
+
+        private final StringBuilder text = new StringBuilder();
+        private final Map<String, String> properties = new HashMap<>();
+        private final Set<String> tzIds = new LinkedHashSet<>();
+        private StringBuilder unfolded;
+        private String unfoldedName;
+        private boolean hasDtStamp;
+        private boolean hasRdate;
+        private int depth;
+
+        EventScanner(String beginLine) {
+            appendLine(beginLine);
+        }
+
+        /**
+         * Consumes the next line of the event and returns {@code true} once its END:VEVENT line
+         * has been reached.
+         */
+        boolean accept(String line) {
+            if (line.isBlank()) {
+                return false;
+            }
+            String name = propertyName(line);
+            if (name == null) {
+                if (unfolded != null) {
+                    unfolded.append(line, 1, line.length());
+                }
+                appendLine(line);
+                return false;
+            }
+            finishUnfolding();
+            String upperName = name.toUpperCase(Locale.ROOT);
+            if (upperName.equals("BEGIN")) {
+                depth++;
+            } else if (upperName.equals("END")) {
+                if (depth == 0) {
+                    if (!hasDtStamp) {
+                        appendLine("DTSTAMP:" + DTSTAMP_FORMAT.format(Instant.now()));
+                    }
+                    appendLine(line);
+                    return true;
+                }
+                depth--;
+            } else if (depth == 0) {
+                if (UNFOLDED_PROPERTIES.contains(upperName)) {
+                    unfolded = new StringBuilder(line);
+                    unfoldedName = upperName;
+                } else {
+                    addTzId(line);
+                    if (upperName.equals("DTSTAMP")) {
+                        hasDtStamp = true;
+                    } else if (upperName.equals("RDATE")) {
+                        hasRdate = true;
+                    }
+                }
+            }
+            appendLine(line);
+            return false;
+        }
+
+        RawEvent toRawEvent() {
+            EventTimes times = new EventTimes(properties.get("DTSTART"), properties.get("DTEND"),
+                properties.get("DURATION"), properties.get("RRULE"), hasRdate,
+                properties.get("RECURRENCE-ID"));
+            return new RawEvent(value("UID"), new InMemoryText(text.toString()), times,
+                EventVersion.parseSequence(value("SEQUENCE")), value("LAST-MODIFIED"),
+                List.copyOf(tzIds));
+        }
+
+        /**
+         * Records the TZID of a property. Properties that are not unfolded are only looked at up
+         * to the end of their first line, which holds the parameters of all but the longest ones.
+         */
+        private void addTzId(String line) {
+            String tzId = tzIdParameter(line);
+            if (tzId != null) {
+                tzIds.add(tzId);
+            }
+        }
+
+        private String value(String name) {
+            String line = properties.get(name);
+            return line == null ? null : propertyValue(line);
+        }
+
+        private void finishUnfolding() {
+            if (unfolded != null) {
+                String line = unfolded.toString();
+                properties.put(unfoldedName, line);
+                addTzId(line);
+                unfolded = null;
+            }
+        }
+
+        private void appendLine(String line) {
+            text.append(line).append(CRLF);
+        }
+    }
+
+    private static class TimezoneScanner {
+
+        private final StringBuilder text = new StringBuilder();
+        private StringBuilder tzId;
+        private boolean unfoldingTzId;
+        private int depth;
+
+        TimezoneScanner(String beginLine) {
+            appendLine(beginLine);
+        }
+
+        /**
+         * Consumes the next line of the timezone and returns {@code true} once its END:VTIMEZONE
+         * line has been reached.
+         */
+        boolean accept(String line) {
+            if (line.isBlank()) {
+                return false;
+            }
+            appendLine(line);
+            String name = propertyName(line);
+            if (name == null) {
+                if (unfoldingTzId) {
+                    tzId.append(line, 1, line.length());
+                }
+                return false;
+            }
+            unfoldingTzId = false;
+            if (name.equalsIgnoreCase("BEGIN")) {
+                depth++;
+            } else if (name.equalsIgnoreCase("END")) {
+                if (depth == 0) {
+                    return true;
+                }
+                depth--;
+            } else if (depth == 0 && name.equalsIgnoreCase("TZID") && tzId == null) {
+                tzId = new StringBuilder(line);
+                unfoldingTzId = true;
+            }
+            return false;
+        }
+
+        /**
+         * Adds the timezone to {@code timezones} unless the feed already defined its TZID.
+         */
+        void addTo(Map<String, String> timezones) {
+            if (tzId != null) {
+                timezones.putIfAbsent(propertyValue(tzId.toString()), text.toString());
+            }
+        }
+
+        private void appendLine(String line) {
+            text.append(line).append(CRLF);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.stephenmatta.ics;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves {@link CombineICSFunction} over HTTP outside Lambda, for trying configurations and
+ * measuring them under load on a laptop. Each request is turned into the API Gateway proxy event
+ * the function expects and handled on its own virtual thread, without an invocation deadline.
+ * A path such as {@code /family.ics} that names a configured calendar is routed to it, as the
+ * {@code {calendar}} resource does in API Gateway; any other path serves the default calendar.
+ *
+ * <p>Run with the function's usual environment variables, plus {@code PORT} to listen on a port
+ * other than 8080.
+ */
+public final class LocalServer {
+
+    private static final Logger log = LoggerFactory.getLogger(LocalServer.class);
+    private static final int DEFAULT_PORT = 8080;
+
+    private final CombineICSFunction function;
+    private final Set<String> calendars;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private LocalServer(CombineICSFunction function, Set<String> calendars, HttpServer server) {
+        this.function = function;
+        this.calendars = calendars;
+        this.server = server;
+    }
+
+    public static void main(String[] args) throws IOException {
+        String port = System.getenv("PORT");
+        LocalServer server = start(new Configuration(),
+            port == null || port.isEmpty() ? DEFAULT_PORT : Integer.parseInt(port));
+        log.info("Serving combined calendars on http://localhost:{}/", server.port());
+    }
+
+    /**
+     * Starts serving on {@code port}, or on any free port if it is 0.
+     */
+    public static LocalServer start(Configuration configuration, int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        LocalServer localServer = new LocalServer(new CombineICSFunction(configuration),
+            configuration.getCalendars().keySet(), server);
+        server.createContext("/", localServer::handle);
+        server.setExecutor(localServer.executor);
+        server.start();
+        return localServer;
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.close();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            Map<String, Object> response = function.handleRequest(toEvent(exchange), null);
+            writeResponse(exchange, response);
+        }
+    }
+
+    private Map<String, Object> toEvent(HttpExchange exchange) {
+        Map<String, String> headers = new LinkedHashMap<>();
+        exchange.getRequestHeaders().forEach((name, values) ->
+            headers.put(name, String.join(",", values)));
+        Map<String, Object> event = new HashMap<>();
+        event.put("httpMethod", exchange.getRequestMethod());
+        String path = exchange.getRequestURI().getPath();
+        event.put("path", path);
+        String segment = path.substring(1);
+        if (calendars.contains(segment.replaceFirst("\\.ics$", ""))) {
+            event.put("pathParameters", Map.of(CombineICSFunction.CALENDAR_PATH_PARAMETER,
+                segment));
+        }
+        event.put("headers", headers);
+        event.put("queryStringParameters", queryParameters(exchange.getRequestURI()
+            .getRawQuery()));
+        return event;
+    }
+
+    private static Map<String, String> queryParameters(String query) {
+        Map<String, String> parameters = new LinkedHashMap<>();
+        if (query == null || query.isEmpty()) {
+            return parameters;
+        }
+        for (String parameter : query.split("&")) {
+            int equals = parameter.indexOf('=');
+            String name = equals < 0 ? parameter : parameter.substring(0, equals);
+            String value = equals < 0 ? "" : parameter.substring(equals + 1);
+            parameters.put(URLDecoder.decode(name, UTF_8), URLDecoder.decode(value, UTF_8));
+        }
+        return parameters;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void writeResponse(HttpExchange exchange, Map<String, Object> response)
+        throws IOException {
+        int statusCode = (Integer) response.get("statusCode");
+        ((Map<String, String>) response.get("headers")).forEach(
+            exchange.getResponseHeaders()::set);
+        String body = (String) response.get("body");
+        byte[] bytes = Boolean.TRUE.equals(response.get("isBase64Encoded"))
+            ? Base64.getDecoder().decode(body)
+            : body.getBytes(UTF_8);
+        if (statusCode == 304 || bytes.length == 0) {
+            exchange.sendResponseHeaders(statusCode, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(statusCode, bytes.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.stephenmatta.ics;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * What was left out of a combined calendar. Sources are identified by their position in the
+ * configured list of URLs, starting at 1: stale sources were served from their last good copy and
+ * skipped sources are missing altogether. Duplicates are copies of events that appeared in more
+ * than one source.
+ */
+record MergeReport(List<Integer> staleSources, List<Integer> skippedSources,
+                   int duplicatesDropped) {
+
+    static final MergeReport COMPLETE = new MergeReport(List.of(), List.of(), 0);
+
+    MergeReport withDuplicatesDropped(int duplicates) {
+        return duplicates == duplicatesDropped
+            ? this
+            : new MergeReport(staleSources, skippedSources, duplicates);
+    }
+
+    void addHeaders(Map<String, String> headers) {
+        if (!staleSources.isEmpty()) {
+            headers.put("X-Masher-Stale-Sources", join(staleSources));
+        }
+        if (!skippedSources.isEmpty()) {
+            headers.put("X-Masher-Skipped-Sources", join(skippedSources));
+        }
+        if (duplicatesDropped > 0) {
+            headers.put("X-Masher-Duplicates-Dropped", String.valueOf(duplicatesDropped));
+        }
+    }
+
+    private static String join(List<Integer> sources) {
+        return sources.stream().map(String::valueOf).collect(Collectors.joining(","));
+    }
+}
@@ -0,0 +1,9 @@
+package com.stephenmatta.ics;
+
+/**
+ * The result of merging the sources: the unserialized calendar and which sources could not
+ * contribute a fresh copy to it.
+ */
+record MergedCalendar(CalendarContent content, MergeReport report) {
+
+}
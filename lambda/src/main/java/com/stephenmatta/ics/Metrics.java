@@ -0,0 +1,143 @@
+package com.stephenmatta.ics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The metrics of one operation, together with those of every upstream source it fetched, which
+ * are written as separate records with the calendar's name and the source's position in it as
+ * their dimensions, so that the first feed of one calendar is never counted as that of another.
+ * Safe to record into from several threads. When metrics are disabled every method does nothing,
+ * so callers do not need to check.
+ */
+final class Metrics {
+
+    /**
+     * The Calendar dimension of the sources of the calendar served when a request names none,
+     * which no named calendar can have since it could not be requested.
+     */
+    static final String DEFAULT_CALENDAR_DIMENSION = "/";
+    private static final Metrics DISABLED = new Metrics(null, Map.of());
+
+    private final MetricsLogger logger;
+    private final Map<String, String> dimensions;
+    private final Map<String, Value> values = new LinkedHashMap<>();
+    private final Map<String, String> properties = new LinkedHashMap<>();
+    private final Map<Integer, Metrics> sources = new TreeMap<>();
+
+    private String calendar = DEFAULT_CALENDAR_DIMENSION;
+
+    /**
+     * @param dimensions the names and values of the record's dimensions, in order
+     */
+    Metrics(MetricsLogger logger, Map<String, String> dimensions) {
+        this.logger = logger;
+        this.dimensions = dimensions;
+    }
+
+    static Metrics disabled() {
+        return DISABLED;
+    }
+
+    boolean isEnabled() {
+        return logger != null;
+    }
+
+    synchronized void put(String name, double value, Unit unit) {
+        if (logger != null) {
+            values.put(name, new Value(value, unit));
+        }
+    }
+
+    /**
+     * Records the time since {@code startNanos}, a value of {@link System#nanoTime()}.
+     */
+    void putElapsed(String name, long startNanos) {
+        if (logger != null) {
+            put(name, (System.nanoTime() - startNanos) / 1_000_000.0, Unit.MILLISECONDS);
+        }
+    }
+
+    void putCount(String name, long count) {
+        put(name, count, Unit.COUNT);
+    }
+
+    /**
+     * Records a value that is searchable in the logs but is not a metric.
+     */
+    synchronized void property(String name, String value) {
+        if (logger != null) {
+            properties.put(name, value);
+        }
+    }
+
+    /**
+     * Records which calendar the operation is for, as a property of its own record and as a
+     * dimension of those of its sources.
+     */
+    synchronized void calendar(String name) {
+        if (logger != null && !name.equals(CombineICSFunction.DEFAULT_CALENDAR)) {
+            calendar = name;
+            properties.put("Calendar", name);
+        }
+    }
+
+    /**
+     * Returns the metrics of the source at {@code position} in the calendar's list, starting at 1.
+     */
+    synchronized Metrics source(int position, String url) {
+        if (logger == null) {
+            return this;
+        }
+        return sources.computeIfAbsent(position, ignored -> {
+            Map<String, String> dimensions = new LinkedHashMap<>();
+            dimensions.put("Calendar", calendar);
+            dimensions.put("Source", String.valueOf(position));
+            Metrics source = new Metrics(logger, dimensions);
+            source.property("Url", url);
+            return source;
+        });
+    }
+
+    /**
+     * Writes this operation's record followed by those of its sources.
+     */
+    void emit() {
+        if (logger == null) {
+            return;
+        }
+        List<Metrics> records = new ArrayList<>();
+        synchronized (this) {
+            records.add(this);
+            records.addAll(sources.values());
+        }
+        for (Metrics record : records) {
+            synchronized (record) {
+                logger.write(record.dimensions, record.values, record.properties);
+            }
+        }
+    }
+
+    enum Unit {
+        MILLISECONDS("Milliseconds"),
+        BYTES("Bytes"),
+        COUNT("Count");
+
+        private final String label;
+
+        Unit(String label) {
+            this.label = label;
+        }
+
+        String label() {
+            return label;
+        }
+    }
+
+    record Value(double value, Unit unit) {
+
+    }
+}
@@ -0,0 +1,113 @@
+package com.stephenmatta.ics;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.time.Clock;
+import java.util.Map;
+import java.util.function.Consumer;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes {@link Metrics} as CloudWatch Embedded Metric Format: one JSON object per line, which
+ * CloudWatch Logs turns into metrics without any calls to the CloudWatch API.
+ *
+ * <p>By default the lines go to the {@value #LOGGER_NAME} logger, which log4j2.properties writes
+ * to standard output without a prefix, as EMF requires.
+ */
+final class MetricsLogger {
+
+    static final String LOGGER_NAME = "com.stephenmatta.ics.metrics";
+    private static final MetricsLogger DISABLED = new MetricsLogger(null, null, null);
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final String namespace;
+    private final Consumer<String> sink;
+    private final Clock clock;
+
+    MetricsLogger(String namespace, Consumer<String> sink, Clock clock) {
+        this.namespace = namespace;
+        this.sink = sink;
+        this.clock = clock;
+    }
+
+    static MetricsLogger disabled() {
+        return DISABLED;
+    }
+
+    /**
+     * Returns the logger the configuration asks for, writing to {@code sink} or, if that is
+     * {@code null}, to the {@value #LOGGER_NAME} logger.
+     */
+    static MetricsLogger from(Configuration configuration, Consumer<String> sink, Clock clock) {
+        if (!configuration.isMetricsEnabled()) {
+            return DISABLED;
+        }
+        return new MetricsLogger(configuration.getMetricsNamespace(),
+            sink != null ? sink : LoggerFactory.getLogger(LOGGER_NAME)::info, clock);
+    }
+
+    /**
+     * Starts collecting the metrics of one operation, such as a request or a calendar build,
+     * which are written when {@link Metrics#emit()} is called.
+     */
+    Metrics start(String operation) {
+        return sink == null ? Metrics.disabled()
+            : new Metrics(this, Map.of("Operation", operation));
+    }
+
+    /**
+     * Writes one record, whose dimensions are declared as a single dimension set.
+     */
+    void write(Map<String, String> dimensions, Map<String, Metrics.Value> values,
+        Map<String, String> properties) {
+        StringWriter line = new StringWriter(256 + 48 * values.size());
+        try (JsonGenerator json = JSON_FACTORY.createGenerator(line)) {
+            json.writeStartObject();
+            json.writeObjectFieldStart("_aws");
+            json.writeNumberField("Timestamp", clock.millis());
+            json.writeArrayFieldStart("CloudWatchMetrics");
+            json.writeStartObject();
+            json.writeStringField("Namespace", namespace);
+            json.writeArrayFieldStart("Dimensions");
+            json.writeStartArray();
+            for (String dimension : dimensions.keySet()) {
+                json.writeString(dimension);
+            }
+            json.writeEndArray();
+            json.writeEndArray();
+            json.writeArrayFieldStart("Metrics");
+            for (Map.Entry<String, Metrics.Value> value : values.entrySet()) {
+                json.writeStartObject();
+                json.writeStringField("Name", value.getKey());
+                json.writeStringField("Unit", value.getValue().unit().label());
+                json.writeEndObject();
+            }
+            json.writeEndArray();
+            json.writeEndObject();
+            json.writeEndArray();
+            json.writeEndObject();
+            for (Map.Entry<String, String> dimension : dimensions.entrySet()) {
+                json.writeStringField(dimension.getKey(), dimension.getValue());
+            }
+            for (Map.Entry<String, String> property : properties.entrySet()) {
+                json.writeStringField(property.getKey(), property.getValue());
+            }
+            for (Map.Entry<String, Metrics.Value> value : values.entrySet()) {
+                double number = value.getValue().value();
+                if (number == Math.rint(number) && Math.abs(number) < 1e15) {
+                    json.writeNumberField(value.getKey(), (long) number);
+                } else {
+                    json.writeNumberField(value.getKey(), number);
+                }
+            }
+            json.writeEndObject();
+        } catch (IOException e) {
+            // A StringWriter never fails, so this cannot happen
+            throw new UncheckedIOException(e);
+        }
+        sink.accept(line.toString());
+    }
+}
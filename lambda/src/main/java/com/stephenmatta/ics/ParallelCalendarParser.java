@@ -0,0 +1,147 @@
+package com.stephenmatta.ics;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static net.fortuna.ical4j.model.Component.VEVENT;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import net.fortuna.ical4j.model.Calendar;
+import net.fortuna.ical4j.model.ComponentList;
+import net.fortuna.ical4j.model.component.CalendarComponent;
+
+/**
+ * Parses a large feed on several threads by splitting it at {@code BEGIN:VEVENT} lines.
+ *
+ * <p>Every chunk is parsed as a calendar of its own, made of the feed's header (everything before
+ * the first event, including its VTIMEZONE definitions) followed by a run of events, so that each
+ * chunk resolves the same TZIDs. The chunks are then stitched back together in feed order, keeping
+ * the header components of the first chunk only. A feed that defines a VTIMEZONE after its first
+ * event is parsed on one thread, since only one chunk would see that definition.
+ */
+final class ParallelCalendarParser {
+
+    private static final byte[] BEGIN_VEVENT = "BEGIN:VEVENT".getBytes(US_ASCII);
+    private static final byte[] BEGIN_VTIMEZONE = "BEGIN:VTIMEZONE".getBytes(US_ASCII);
+    private static final byte[] END_VCALENDAR = "END:VCALENDAR\r\n".getBytes(US_ASCII);
+
+    private final int threshold;
+    private final int parallelism;
+    private final Executor executor;
+
+    /**
+     * @param threshold the smallest feed, in bytes, that is split, or 0 to never split
+     * @param parallelism the most chunks a feed is split into
+     * @param executor runs every chunk but the first, which is parsed on the calling thread
+     */
+    ParallelCalendarParser(int threshold, int parallelism, Executor executor) {
+        this.threshold = threshold;
+        this.parallelism = parallelism;
+        this.executor = executor;
+    }
+
+    /**
+     * Whether any feed can be split at all; if not, there is no need to buffer feeds for it.
+     */
+    boolean isEnabled() {
+        return threshold > 0 && parallelism > 1;
+    }
+
+    Calendar parse(byte[] feed, Function<InputStream, Calendar> parser) {
+        List<Integer> eventStarts = feed.length < threshold ? List.of() : findEventStarts(feed);
+        int chunkCount = Math.min(parallelism, eventStarts.size());
+        if (!isEnabled() || chunkCount < 2 || hasLateTimezone(feed, eventStarts.get(0))) {
+            return parser.apply(new ByteArrayInputStream(feed));
+        }
+
+        int headerLength = eventStarts.get(0);
+        List<CompletableFuture<Calendar>> chunks = new ArrayList<>(chunkCount - 1);
+        for (int i = 1; i < chunkCount; i++) {
+            int from = eventStarts.get(i * eventStarts.size() / chunkCount);
+            int to = i == chunkCount - 1
+                ? feed.length
+                : eventStarts.get((i + 1) * eventStarts.size() / chunkCount);
+            boolean last = i == chunkCount - 1;
+            chunks.add(CompletableFuture.supplyAsync(
+                () -> parser.apply(chunk(feed, headerLength, from, to, last)), executor));
+        }
+        Calendar first = parser.apply(chunk(feed, headerLength, headerLength,
+            eventStarts.get(eventStarts.size() / chunkCount), false));
+
+        List<CalendarComponent> components = new ArrayList<>(first.getComponents());
+        int headerComponents = indexOfFirstEvent(components);
+        for (CompletableFuture<Calendar> chunk : chunks) {
+            List<CalendarComponent> chunkComponents = chunk.join().getComponents();
+            components.addAll(chunkComponents.subList(
+                Math.min(headerComponents, chunkComponents.size()), chunkComponents.size()));
+        }
+        first.setComponentList(new ComponentList<>(components));
+        return first;
+    }
+
+    private static InputStream chunk(byte[] feed, int headerLength, int from, int to,
+        boolean last) {
+        List<InputStream> parts = new ArrayList<>(3);
+        parts.add(new ByteArrayInputStream(feed, 0, headerLength));
+        parts.add(new ByteArrayInputStream(feed, from, to - from));
+        if (!last) {
+            parts.add(new ByteArrayInputStream(END_VCALENDAR));
+        }
+        return new SequenceInputStream(Collections.enumeration(parts));
+    }
+
+    /**
+     * Returns the offsets of every line that begins an event. A folded continuation line starts
+     * with whitespace, so it can never be mistaken for one.
+     */
+    static List<Integer> findEventStarts(byte[] feed) {
+        List<Integer> starts = new ArrayList<>();
+        for (int i = 0; i <= feed.length - BEGIN_VEVENT.length; i++) {
+            if (isLine(feed, i, BEGIN_VEVENT)) {
+                starts.add(i);
+            }
+        }
+        return starts;
+    }
+
+    /**
+     * Whether a VTIMEZONE begins anywhere after {@code from}, where it would be missing from the
+     * header that every chunk is given.
+     */
+    static boolean hasLateTimezone(byte[] feed, int from) {
+        for (int i = from; i <= feed.length - BEGIN_VTIMEZONE.length; i++) {
+            if (isLine(feed, i, BEGIN_VTIMEZONE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isLine(byte[] feed, int offset, byte[] line) {
+        if (offset > 0 && feed[offset - 1] != '\n') {
+            return false;
+        }
+        for (int j = 0; j < line.length; j++) {
+            if (feed[offset + j] != line[j]) {
+                return false;
+            }
+        }
+        int end = offset + line.length;
+        return end == feed.length || feed[end] == '\r' || feed[end] == '\n';
+    }
+
+    private static int indexOfFirstEvent(List<CalendarComponent> components) {
+        for (int i = 0; i < components.size(); i++) {
+            if (components.get(i).getName().equals(VEVENT)) {
+                return i;
+            }
+        }
+        return components.size();
+    }
+}
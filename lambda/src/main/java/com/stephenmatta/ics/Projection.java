@@ -0,0 +1,211 @@
+package com.stephenmatta.ics;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Which parts of every event a calendar keeps, applied to the content lines of each feed as it is
+ * read, so that what is stripped is never parsed, held or written.
+ *
+ * <p>Only the event's own properties and subcomponents are projected. A subcomponent that is kept
+ * is kept whole, and VTIMEZONEs and the calendar's own properties are left alone. UID, DTSTAMP and
+ * the properties that say when an event takes place or order its versions are always kept, since
+ * merging relies on them.
+ *
+ * @param allow                whether {@code names} lists what is kept rather than what is dropped
+ * @param names                upper-case property and subcomponent names, each of which may end in
+ *                             {@code *} to match every name with that prefix
+ * @param maxDescriptionLength the most characters of a DESCRIPTION that are kept, or 0 for all
+ */
+record Projection(boolean allow, Set<String> names, int maxDescriptionLength) {
+
+    static final Projection NONE = new Projection(false, Set.of(), 0);
+
+    private static final Set<String> REQUIRED_PROPERTIES = Set.of("UID", "DTSTAMP", "DTSTART",
+        "DTEND", "DURATION", "RRULE", "RDATE", "EXDATE", "RECURRENCE-ID", "SEQUENCE",
+        "LAST-MODIFIED");
+    private static final String CRLF = "\r\n";
+    private static final int MAX_LINE_LENGTH = 75;
+    private static final String ELLIPSIS = "\u2026";
+
+    boolean isIdentity() {
+        return !allow && names.isEmpty() && maxDescriptionLength == 0;
+    }
+
+    /**
+     * Returns a reader of the lines of {@code reader} that this projection keeps.
+     */
+    Reader filter(Reader reader) {
+        return isIdentity() ? reader : new ProjectingReader(reader, this);
+    }
+
+    boolean keepsProperty(String upperName) {
+        return REQUIRED_PROPERTIES.contains(upperName) || allow == lists(upperName);
+    }
+
+    boolean keepsComponent(String upperName) {
+        return allow == lists(upperName);
+    }
+
+    private boolean lists(String upperName) {
+        if (names.contains(upperName)) {
+            return true;
+        }
+        for (String name : names) {
+            if (name.endsWith("*") && upperName.startsWith(name.substring(0, name.length() - 1))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Copies the content lines it reads, dropping those of the properties and subcomponents that
+     * are not kept, and unfolding and shortening DESCRIPTIONs that are too long.
+     */
+    private static final class ProjectingReader extends Reader {
+
+        private final BufferedReader in;
+        private final Projection projection;
+        private final StringBuilder out = new StringBuilder();
+        private int position;
+        private boolean done;
+        private boolean inEvent;
+        private int depth;
+        private int droppedDepth;
+        private boolean droppingProperty;
+        private StringBuilder description;
+
+        ProjectingReader(Reader in, Projection projection) {
+            this.in = new BufferedReader(in);
+            this.projection = projection;
+        }
+
+        @Override
+        public int read(char[] buffer, int off, int len) throws IOException {
+            while (position == out.length()) {
+                if (done) {
+                    return -1;
+                }
+                out.setLength(0);
+                position = 0;
+                String line = in.readLine();
+                if (line == null) {
+                    finishDescription();
+                    done = true;
+                } else {
+                    accept(line);
+                }
+            }
+            int read = Math.min(len, out.length() - position);
+            out.getChars(position, position + read, buffer, off);
+            position += read;
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        private void accept(String line) {
+            if (line.isBlank()) {
+                return;
+            }
+            String name = IcsSplicer.propertyName(line);
+            if (droppedDepth > 0) {
+                if ("BEGIN".equalsIgnoreCase(name)) {
+                    droppedDepth++;
+                } else if ("END".equalsIgnoreCase(name)) {
+                    droppedDepth--;
+                }
+                return;
+            }
+            if (name == null) {
+                if (description != null) {
+                    description.append(line, 1, line.length());
+                } else if (!droppingProperty) {
+                    emit(line);
+                }
+                return;
+            }
+            finishDescription();
+            droppingProperty = false;
+            String upperName = name.toUpperCase(Locale.ROOT);
+            if (!inEvent) {
+                inEvent = upperName.equals("BEGIN") && componentName(line).equals("VEVENT");
+                emit(line);
+            } else if (upperName.equals("BEGIN")) {
+                if (depth == 0 && !projection.keepsComponent(componentName(line))) {
+                    droppedDepth = 1;
+                } else {
+                    depth++;
+                    emit(line);
+                }
+            } else if (upperName.equals("END")) {
+                if (depth == 0) {
+                    inEvent = false;
+                } else {
+                    depth--;
+                }
+                emit(line);
+            } else if (depth > 0) {
+                emit(line);
+            } else if (!projection.keepsProperty(upperName)) {
+                droppingProperty = true;
+            } else if (upperName.equals("DESCRIPTION") && projection.maxDescriptionLength() > 0) {
+                description = new StringBuilder(line);
+            } else {
+                emit(line);
+            }
+        }
+
+        /**
+         * Writes the DESCRIPTION that has been unfolded so far, cut short if it is too long, and
+         * folded again.
+         */
+        private void finishDescription() {
+            if (description == null) {
+                return;
+            }
+            String line = description.toString();
+            description = null;
+            String value = IcsSplicer.propertyValue(line);
+            int max = projection.maxDescriptionLength();
+            if (value.length() > max) {
+                int cut = max;
+                if (Character.isHighSurrogate(value.charAt(cut - 1))) {
+                    cut--;
+                }
+                int backslashes = 0;
+                while (backslashes < cut && value.charAt(cut - 1 - backslashes) == '\\') {
+                    backslashes++;
+                }
+                // Never leave the first half of an escape sequence such as \n behind
+                cut -= backslashes % 2;
+                line = line.substring(0, line.length() - value.length())
+                    + value.substring(0, cut) + ELLIPSIS;
+            }
+            for (int start = 0; start < line.length(); ) {
+                int end = Math.min(line.length(),
+                    start + (start == 0 ? MAX_LINE_LENGTH : MAX_LINE_LENGTH - 1));
+                if (end < line.length() && Character.isHighSurrogate(line.charAt(end - 1))) {
+                    end--;
+                }
+                emit(start == 0 ? line.substring(0, end) : " " + line.substring(start, end));
+                start = end;
+            }
+        }
+
+        private void emit(String line) {
+            out.append(line).append(CRLF);
+        }
+
+        private static String componentName(String line) {
+            return IcsSplicer.propertyValue(line).strip().toUpperCase(Locale.ROOT);
+        }
+    }
+}
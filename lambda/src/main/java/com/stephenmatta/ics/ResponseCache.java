@@ -0,0 +1,111 @@
+package com.stephenmatta.ics;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stale-while-revalidate cache for a single value.
+ *
+ * <p>A fresh value is returned as is. A stale value is returned as well, but triggers one
+ * asynchronous reload whose result replaces it once complete; if the reload fails the stale
+ * value is kept. Callers that find no value at all wait on a single shared load. Note that Lambda
+ * freezes the container between invocations, so a background reload started by one invocation
+ * may only finish during the next one.
+ *
+ * @param <T> the cached value
+ */
+class ResponseCache<T> {
+
+    private static final Logger log = LoggerFactory.getLogger(ResponseCache.class);
+
+    private final Duration freshness;
+    private final Clock clock;
+    private volatile Entry<T> entry;
+    private CompletableFuture<T> inFlight;
+
+    ResponseCache(Duration freshness, Clock clock) {
+        this.freshness = freshness;
+        this.clock = clock;
+    }
+
+    T get(Supplier<CompletableFuture<T>> loader) {
+        return get(loader, outcome -> {
+        });
+    }
+
+    /**
+     * Returns the cached value like {@link #get(Supplier)}, and tells {@code outcome} how it was
+     * found.
+     */
+    T get(Supplier<CompletableFuture<T>> loader, Consumer<Outcome> outcome) {
+        Entry<T> current = entry;
+        if (current == null) {
+            outcome.accept(Outcome.MISS);
+            return load(loader).join();
+        }
+        if (clock.instant().isAfter(current.loadedAt().plus(freshness))) {
+            outcome.accept(Outcome.STALE);
+            load(loader);
+        } else {
+            outcome.accept(Outcome.FRESH);
+        }
+        return current.value();
+    }
+
+    /**
+     * Replaces the cached value with one that was loaded elsewhere.
+     */
+    synchronized void put(T value) {
+        entry = new Entry<>(value, clock.instant());
+    }
+
+    /**
+     * Caches a value that is already stale, such as one restored from a snapshot, so that it is
+     * served while the first load runs in the background. Does nothing once a value is cached.
+     */
+    synchronized void putStale(T value) {
+        if (entry == null) {
+            entry = new Entry<>(value, Instant.MIN);
+        }
+    }
+
+    private synchronized CompletableFuture<T> load(Supplier<CompletableFuture<T>> loader) {
+        if (inFlight != null) {
+            return inFlight;
+        }
+        CompletableFuture<T> load = loader.get();
+        inFlight = load;
+        load.whenComplete((value, error) -> complete(load, value, error));
+        return load;
+    }
+
+    private synchronized void complete(CompletableFuture<T> load, T value, Throwable error) {
+        if (error == null) {
+            entry = new Entry<>(value, clock.instant());
+        } else if (entry != null) {
+            log.warn("Refreshing cached response failed, serving stale response", error);
+        }
+        if (inFlight == load) {
+            inFlight = null;
+        }
+    }
+
+    enum Outcome {
+        /** A fresh value was returned. */
+        FRESH,
+        /** A stale value was returned and is being reloaded. */
+        STALE,
+        /** There was no value, so the caller waited for one to be loaded. */
+        MISS
+    }
+
+    private record Entry<T>(T value, Instant loadedAt) {
+
+    }
+}
@@ -0,0 +1,115 @@
+package com.stephenmatta.ics;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Clock;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * Keeps snapshots as objects in an S3 bucket, or in any store that speaks the S3 API, addressing
+ * them path-style as {@code endpoint/bucket/prefix/key}.
+ *
+ * <p>Requests are signed by {@link AwsRequestSigner} rather than made through the AWS SDK, whose
+ * initialisation would add more to a cold start than the snapshot saves for small calendars.
+ */
+final class S3SnapshotStore implements SnapshotStore {
+
+    private final URI endpoint;
+    private final String bucket;
+    private final String prefix;
+    private final AwsRequestSigner signer;
+    private final Supplier<AwsCredentials> credentials;
+    private final Supplier<HttpClient> httpClient;
+    private final Clock clock;
+
+    /**
+     * @param prefix prepended to every key, either empty or ending in {@code /}
+     */
+    S3SnapshotStore(URI endpoint, String bucket, String prefix, AwsRequestSigner signer,
+        Supplier<AwsCredentials> credentials, Supplier<HttpClient> httpClient, Clock clock) {
+        this.endpoint = endpoint;
+        this.bucket = bucket;
+        this.prefix = prefix;
+        this.signer = signer;
+        this.credentials = credentials;
+        this.httpClient = httpClient;
+        this.clock = clock;
+    }
+
+    @Override
+    public Optional<byte[]> read(String key) throws IOException {
+        HttpResponse<byte[]> response = send("GET", key, new byte[0],
+            AwsRequestSigner.EMPTY_PAYLOAD_HASH);
+        return switch (response.statusCode()) {
+            case 200 -> Optional.of(response.body());
+            case 404 -> Optional.empty();
+            default -> throw failure("Reading", key, response);
+        };
+    }
+
+    @Override
+    public void write(String key, byte[] value) throws IOException {
+        HttpResponse<byte[]> response = send("PUT", key, value,
+            AwsRequestSigner.sha256Hex(value));
+        if (response.statusCode() != 200) {
+            throw failure("Writing", key, response);
+        }
+    }
+
+    private HttpResponse<byte[]> send(String method, String key, byte[] body,
+        String payloadHash) throws IOException {
+        String path = encodePath(endpoint.getRawPath().replaceAll("/$", "") + "/" + bucket + "/"
+            + prefix + key);
+        URI uri = endpoint.resolve(path);
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri)
+            .method(method, HttpRequest.BodyPublishers.ofByteArray(body));
+        signer.sign(method, path, Map.of("host", host(uri)), payloadHash, credentials.get(),
+            clock.instant()).forEach(request::header);
+        try {
+            return httpClient.get().send(request.build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while accessing " + uri, e);
+        }
+    }
+
+    /**
+     * The {@code Host} header the HTTP client sends for {@code uri}, which it does not let callers
+     * set but which has to be signed.
+     */
+    private static String host(URI uri) {
+        return uri.getPort() == -1 ? uri.getHost() : uri.getHost() + ":" + uri.getPort();
+    }
+
+    /**
+     * Percent-encodes every segment of {@code path} as S3 expects, leaving only unreserved
+     * characters as they are.
+     */
+    static String encodePath(String path) {
+        StringBuilder encoded = new StringBuilder(path.length());
+        for (byte b : path.getBytes(UTF_8)) {
+            char c = (char) (b & 0xff);
+            if (c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z' || c >= '0' && c <= '9'
+                || "-._~/".indexOf(c) >= 0) {
+                encoded.append(c);
+            } else {
+                encoded.append('%').append(String.format("%02X", b & 0xff));
+            }
+        }
+        return encoded.toString();
+    }
+
+    private IOException failure(String action, String key, HttpResponse<byte[]> response) {
+        return new IOException(action + " snapshot " + prefix + key + " in bucket " + bucket
+            + " failed: HTTP " + response.statusCode() + " " + new String(response.body(),
+            UTF_8));
+    }
+}
@@ -0,0 +1,79 @@
+package com.stephenmatta.ics;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.List;
+import net.fortuna.ical4j.data.CalendarParserFactory;
+import net.fortuna.ical4j.data.ContentHandlerContext;
+import net.fortuna.ical4j.data.DefaultComponentFactorySupplier;
+import net.fortuna.ical4j.data.DefaultContentHandler;
+import net.fortuna.ical4j.data.DefaultParameterFactorySupplier;
+import net.fortuna.ical4j.data.DefaultPropertyFactorySupplier;
+import net.fortuna.ical4j.data.ParserException;
+import net.fortuna.ical4j.data.UnfoldingReader;
+import net.fortuna.ical4j.model.Calendar;
+import net.fortuna.ical4j.model.ComponentFactory;
+import net.fortuna.ical4j.model.ComponentList;
+import net.fortuna.ical4j.model.ParameterFactory;
+import net.fortuna.ical4j.model.PropertyFactory;
+import net.fortuna.ical4j.model.PropertyList;
+
+/**
+ * Parses calendars like ical4j's {@code CalendarBuilder}, but against a {@link
+ * SharedTimeZoneRegistry} and with state that is set up once per process rather than once per
+ * feed.
+ *
+ * <p>ical4j's content handler publishes its registry's zone rules to {@code java.time} at the end
+ * of every calendar, which would fail for rules a shared registry has already published, and
+ * builds a fresh list of every property, parameter and component factory for every property it
+ * reads. This builder's handler leaves publishing to the registry and reuses one list of each.
+ */
+final class SharedCalendarBuilder {
+
+    private static final List<ParameterFactory<?>> PARAMETER_FACTORIES =
+        List.copyOf(new DefaultParameterFactorySupplier().get());
+    private static final List<PropertyFactory<?>> PROPERTY_FACTORIES =
+        List.copyOf(new DefaultPropertyFactorySupplier().get());
+    private static final List<ComponentFactory<?>> COMPONENT_FACTORIES =
+        List.copyOf(new DefaultComponentFactorySupplier().get());
+    private static final ContentHandlerContext CONTEXT = new ContentHandlerContext()
+        .withParameterFactorySupplier(() -> PARAMETER_FACTORIES)
+        .withPropertyFactorySupplier(() -> PROPERTY_FACTORIES)
+        .withComponentFactorySupplier(() -> COMPONENT_FACTORIES);
+
+    private final SharedTimeZoneRegistry registry;
+
+    SharedCalendarBuilder(SharedTimeZoneRegistry registry) {
+        this.registry = registry;
+    }
+
+    Calendar build(InputStream inputStream) throws IOException, ParserException {
+        return build(new InputStreamReader(inputStream, UTF_8));
+    }
+
+    Calendar build(Reader reader) throws IOException, ParserException {
+        CalendarHandler handler = new CalendarHandler(registry);
+        CalendarParserFactory.getInstance().get().parse(new UnfoldingReader(reader), handler);
+        return handler.calendar;
+    }
+
+    private static final class CalendarHandler extends DefaultContentHandler {
+
+        private Calendar calendar;
+
+        CalendarHandler(SharedTimeZoneRegistry registry) {
+            super(ignored -> {
+            }, registry, CONTEXT);
+        }
+
+        @Override
+        public void endCalendar() {
+            calendar = new Calendar(new PropertyList(calendarProperties),
+                new ComponentList<>(calendarComponents));
+        }
+    }
+}
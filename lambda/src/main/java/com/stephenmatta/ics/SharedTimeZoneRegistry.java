@@ -0,0 +1,183 @@
+package com.stephenmatta.ics;
+
+import java.time.ZoneId;
+import java.time.zone.ZoneRules;
+import java.time.zone.ZoneRulesProvider;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import net.fortuna.ical4j.model.TimeZone;
+import net.fortuna.ical4j.model.TimeZoneRegistry;
+import net.fortuna.ical4j.model.TimeZoneRegistryImpl;
+import net.fortuna.ical4j.model.ZoneRulesBuilder;
+import net.fortuna.ical4j.model.component.VTimeZone;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A thread-safe timezone registry shared by every {@code CalendarBuilder} in the process.
+ *
+ * <p>ical4j's own registry is meant to live for a single parse: each one loads the zones it is
+ * asked for from the bundled tz database again, and each parse publishes the rules of the feed's
+ * VTIMEZONEs to {@code java.time} under fresh ids that are never released. This registry builds
+ * and publishes the rules of a VTIMEZONE definition once, however many feeds and parses register
+ * it, and keeps every zone it has loaded. Calendars must be parsed with a {@link
+ * SharedCalendarBuilder}, which leaves publishing to the registry.
+ *
+ * <p>A TZID resolves to the definition most recently registered for it, so feeds that define the
+ * same TZID differently share whichever definition was parsed last.
+ */
+final class SharedTimeZoneRegistry implements TimeZoneRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(SharedTimeZoneRegistry.class);
+    private static final SharedTimeZoneRegistry INSTANCE = new SharedTimeZoneRegistry();
+
+    private final TimeZoneRegistry database = new TimeZoneRegistryImpl();
+    private final ConcurrentMap<String, ZoneId> publishedDefinitions = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ZoneRules> zoneRules = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Definition> definitions = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Optional<TimeZone>> databaseZones =
+        new ConcurrentHashMap<>();
+
+    static SharedTimeZoneRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    SharedTimeZoneRegistry() {
+    }
+
+    /**
+     * Loads the given zones from the tz database ahead of the first feed that uses them.
+     */
+    void preload(List<String> tzIds) {
+        for (String tzId : tzIds) {
+            if (getTimeZone(tzId) == null) {
+                log.warn("Unknown timezone {} cannot be preloaded", tzId);
+            } else {
+                getZoneId(tzId);
+            }
+        }
+    }
+
+    /**
+     * Returns the VTIMEZONE that a TZID currently resolves to, whether a feed defined it or it was
+     * loaded from the tz database.
+     */
+    Optional<VTimeZone> getVTimeZone(String tzId) {
+        return Optional.ofNullable(getTimeZone(tzId)).map(TimeZone::getVTimeZone);
+    }
+
+    @Override
+    public void register(TimeZone timezone) {
+        String text = timezone.getVTimeZone().toString();
+        Definition current = definitions.get(timezone.getID());
+        if (current != null && current.text().equals(text)) {
+            return;
+        }
+        ZoneId zoneId = publishedDefinitions.computeIfAbsent(text,
+            ignored -> publish(timezone.getVTimeZone()));
+        definitions.put(timezone.getID(), new Definition(text, timezone, zoneId));
+    }
+
+    /**
+     * Registers the definition as is; refreshing it from its TZURL is not supported.
+     */
+    @Override
+    public void register(TimeZone timezone, boolean update) {
+        register(timezone);
+    }
+
+    @Override
+    public void clear() {
+        definitions.clear();
+    }
+
+    @Override
+    public TimeZone getTimeZone(String tzId) {
+        Definition definition = definitions.get(tzId);
+        if (definition != null) {
+            return definition.timezone();
+        }
+        return databaseZones.computeIfAbsent(tzId, this::loadTimeZone).orElse(null);
+    }
+
+    private Optional<TimeZone> loadTimeZone(String tzId) {
+        synchronized (database) {
+            return Optional.ofNullable(database.getTimeZone(tzId));
+        }
+    }
+
+    @Override
+    public Map<String, ZoneRules> getZoneRules() {
+        return Collections.unmodifiableMap(zoneRules);
+    }
+
+    @Override
+    public ZoneId getZoneId(String tzId) {
+        Definition definition = definitions.get(tzId);
+        if (definition != null) {
+            return definition.zoneId();
+        }
+        return TimeZoneRegistry.getGlobalZoneId(tzId);
+    }
+
+    @Override
+    public String getTzId(String zoneId) {
+        for (Map.Entry<String, Definition> entry : definitions.entrySet()) {
+            if (entry.getValue().zoneId().getId().equals(zoneId)) {
+                return entry.getKey();
+            }
+        }
+        synchronized (database) {
+            return database.getTzId(zoneId);
+        }
+    }
+
+    private ZoneId publish(VTimeZone vTimeZone) {
+        String zoneId = "ical4j~" + UUID.randomUUID();
+        ZoneRules rules = new ZoneRulesBuilder().vTimeZone(vTimeZone).build();
+        ZoneRulesProvider.registerProvider(new DefinitionRulesProvider(zoneId, rules));
+        zoneRules.put(zoneId, rules);
+        return ZoneId.of(zoneId);
+    }
+
+    private record Definition(String text, TimeZone timezone, ZoneId zoneId) {
+
+    }
+
+    /**
+     * Serves the rules of one VTIMEZONE definition to {@code java.time}.
+     */
+    private static final class DefinitionRulesProvider extends ZoneRulesProvider {
+
+        private final String zoneId;
+        private final ZoneRules rules;
+
+        DefinitionRulesProvider(String zoneId, ZoneRules rules) {
+            this.zoneId = zoneId;
+            this.rules = rules;
+        }
+
+        @Override
+        protected Set<String> provideZoneIds() {
+            return Set.of(zoneId);
+        }
+
+        @Override
+        protected ZoneRules provideRules(String regionId, boolean forCaching) {
+            return rules;
+        }
+
+        @Override
+        protected NavigableMap<String, ZoneRules> provideVersions(String regionId) {
+            return new TreeMap<>(Map.of(zoneId, rules));
+        }
+    }
+}
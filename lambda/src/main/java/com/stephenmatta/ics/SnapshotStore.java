@@ -0,0 +1,45 @@
+package com.stephenmatta.ics;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * Durable storage for what a warm container has computed, so that a cold one can start from it.
+ * Keys are relative paths made of URL-safe characters.
+ */
+interface SnapshotStore {
+
+    /**
+     * Returns the value stored under {@code key}, or nothing if there is none.
+     */
+    Optional<byte[]> read(String key) throws IOException;
+
+    /**
+     * Replaces the value stored under {@code key}. Readers see either the old or the new value.
+     */
+    void write(String key, byte[] value) throws IOException;
+
+    /**
+     * Opens the store configured by {@code ICS_SNAPSHOT_LOCATION}, if any. S3 credentials are
+     * read from {@code environment}, and S3 is accessed with whichever client {@code httpClient}
+     * supplies at the time.
+     */
+    static Optional<SnapshotStore> open(Configuration configuration,
+        Map<String, String> environment, Supplier<HttpClient> httpClient) {
+        return configuration.getSnapshotLocation().map(location -> {
+            if (location.getScheme().equals("s3")) {
+                return new S3SnapshotStore(configuration.getSnapshotEndpoint(),
+                    location.getHost(), location.getPath().replaceFirst("^/", ""),
+                    new AwsRequestSigner(configuration.getSnapshotRegion(), "s3"),
+                    AwsCredentials.fromEnvironment(environment, httpClient, Clock.systemUTC()),
+                    httpClient, Clock.systemUTC());
+            }
+            return new FileSnapshotStore(Path.of(location));
+        });
+    }
+}
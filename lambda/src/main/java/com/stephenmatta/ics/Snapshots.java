@@ -0,0 +1,142 @@
+package com.stephenmatta.ics;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Saves combined calendars and upstream feeds to a {@link SnapshotStore} and reads them back after
+ * a cold start. Snapshots are a best effort: failing to read one is treated as finding none, and
+ * failing to write one is logged.
+ *
+ * <p>Writes run in the background. Lambda freezes the container once a response has been
+ * returned, so a write started by one invocation may only finish during the next one; callers
+ * that must know the snapshot has been written wait for {@link #awaitWrites()}.
+ */
+final class Snapshots {
+
+    private static final Logger log = LoggerFactory.getLogger(Snapshots.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final Snapshots DISABLED = new Snapshots(null);
+
+    private final SnapshotStore store;
+    private final ConcurrentMap<String, String> writtenSources = new ConcurrentHashMap<>();
+    private final Set<CompletableFuture<Void>> pendingWrites = ConcurrentHashMap.newKeySet();
+
+    Snapshots(SnapshotStore store) {
+        this.store = store;
+    }
+
+    static Snapshots disabled() {
+        return DISABLED;
+    }
+
+    boolean isEnabled() {
+        return store != null;
+    }
+
+    /**
+     * Returns the combined calendar last saved for a calendar's date window, identified by the
+     * key it is cached under.
+     */
+    Optional<CombinedCalendar> readCalendar(String windowKey) {
+        return read(calendarKey(windowKey), CalendarSnapshot.class).map(snapshot ->
+            CombinedCalendar.restore(snapshot.body(), snapshot.report(),
+                Instant.ofEpochSecond(snapshot.lastModified())));
+    }
+
+    void writeCalendar(String windowKey, CombinedCalendar calendar) {
+        write(calendarKey(windowKey), new CalendarSnapshot(calendar.body(), calendar.report(),
+            calendar.lastModified().getEpochSecond()));
+    }
+
+    /**
+     * Returns the feed last saved for {@code url}, with the validators it was served with.
+     */
+    Optional<Source> readSource(String url) {
+        return read(sourceKey(url), Source.class);
+    }
+
+    /**
+     * Saves the feed {@code url} responded with, unless it is the same as the one this container
+     * saved last.
+     */
+    void writeSource(String url, HttpResponse<?> response, byte[] body) {
+        String hash = AwsRequestSigner.sha256Hex(body);
+        if (hash.equals(writtenSources.put(url, hash))) {
+            return;
+        }
+        write(sourceKey(url), new Source(response.headers().firstValue("ETag").orElse(null),
+            response.headers().firstValue("Last-Modified").orElse(null), body));
+    }
+
+    /**
+     * Waits until every write started so far has completed or failed.
+     */
+    void awaitWrites() {
+        CompletableFuture.allOf(pendingWrites.toArray(CompletableFuture[]::new)).join();
+    }
+
+    private <T> Optional<T> read(String key, Class<T> type) {
+        if (store == null) {
+            return Optional.empty();
+        }
+        try {
+            Optional<byte[]> bytes = store.read(key);
+            if (bytes.isEmpty()) {
+                log.debug("No snapshot {}", key);
+                return Optional.empty();
+            }
+            return Optional.of(objectMapper.readValue(bytes.get(), type));
+        } catch (IOException | RuntimeException e) {
+            log.warn("Reading snapshot {} failed", key, e);
+            return Optional.empty();
+        }
+    }
+
+    private void write(String key, Object snapshot) {
+        if (store == null) {
+            return;
+        }
+        CompletableFuture<Void> write = CompletableFuture.runAsync(() -> {
+            try {
+                store.write(key, objectMapper.writeValueAsBytes(snapshot));
+                log.debug("Wrote snapshot {}", key);
+            } catch (IOException | RuntimeException e) {
+                log.warn("Writing snapshot {} failed", key, e);
+            }
+        });
+        pendingWrites.add(write);
+        write.whenComplete((ignored, error) -> pendingWrites.remove(write));
+    }
+
+    private static String calendarKey(String windowKey) {
+        return "calendars/" + AwsRequestSigner.sha256Hex(windowKey.getBytes(UTF_8)) + ".json";
+    }
+
+    private static String sourceKey(String url) {
+        return "sources/" + AwsRequestSigner.sha256Hex(url.getBytes(UTF_8)) + ".json";
+    }
+
+    private record CalendarSnapshot(String body, MergeReport report, long lastModified) {
+
+    }
+
+    /**
+     * A saved upstream feed and the validators it was served with, either of which may be
+     * {@code null}.
+     */
+    record Source(String etag, String lastModified, byte[] body) {
+
+    }
+}
@@ -0,0 +1,58 @@
+package com.stephenmatta.ics;
+
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Remembers the validators and the parsed content of every upstream feed, so that a warm container
+ * can send conditional requests and reuse the parsed content when the upstream answers
+ * {@code 304 Not Modified}. The content also serves as the feed's last good copy when the upstream
+ * fails.
+ *
+ * @param <T> the parsed representation of a feed
+ */
+class SourceCache<T> {
+
+    private final ConcurrentMap<String, Entry<T>> entries = new ConcurrentHashMap<>();
+
+    Optional<Entry<T>> get(String url) {
+        return Optional.ofNullable(entries.get(url));
+    }
+
+    /**
+     * Stores the parsed content of {@code url}, parsed from {@code bytes} bytes, with whichever
+     * validators the response carries. Without any, later requests are sent unconditionally.
+     */
+    void put(String url, HttpResponse<?> response, T value, long bytes) {
+        Optional<String> etag = response.headers().firstValue("ETag");
+        Optional<String> lastModified = response.headers().firstValue("Last-Modified");
+        put(url, etag.orElse(null), lastModified.orElse(null), value, bytes);
+    }
+
+    /**
+     * Stores the parsed content of {@code url}, parsed from {@code bytes} bytes, with the given
+     * validators, either of which may be {@code null}.
+     */
+    void put(String url, String etag, String lastModified, T value, long bytes) {
+        entries.put(url, new Entry<>(etag, lastModified, value, bytes));
+    }
+
+    /**
+     * @param bytes the size of the feed the value was parsed from
+     */
+    record Entry<T>(String etag, String lastModified, T value, long bytes) {
+
+        HttpRequest.Builder applyTo(HttpRequest.Builder builder) {
+            if (etag != null) {
+                builder.header("If-None-Match", etag);
+            }
+            if (lastModified != null) {
+                builder.header("If-Modified-Since", lastModified);
+            }
+            return builder;
+        }
+    }
+}
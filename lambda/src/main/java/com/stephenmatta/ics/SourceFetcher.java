@@ -0,0 +1,402 @@
+package com.stephenmatta.ics;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fetches and parses the upstream feeds concurrently.
+ *
+ * <p>Every source gets the time that is left before the deadline, capped by the configured
+ * per-source timeout. Sources that are slower than usual can be hedged with a second request, and
+ * sources that fail or time out can be replaced by their last good copy, or left out, instead of
+ * failing the whole calendar.
+ *
+ * <p>With snapshots enabled, every feed that is downloaded is saved, and the first fetch of a
+ * feed that has no cached copy starts from the saved one.
+ *
+ * <p>Builds that need a feed while another build is already fetching it, such as two calendars
+ * that share the feed, wait for that fetch and its parsed result instead of sending their own
+ * request. They then share its timeout too.
+ *
+ * <p>With circuit breakers enabled, a feed that keeps failing is not fetched at all for a while,
+ * and is treated as failed straight away: replaced by its last good copy or left out when partial
+ * responses are enabled, and failing the calendar otherwise.
+ *
+ * <p>A feed that is larger, or has more events, than its budget allows fails as soon as it goes
+ * over, and is then treated like any other failed feed.
+ */
+class SourceFetcher {
+
+    private static final Logger log = LoggerFactory.getLogger(SourceFetcher.class);
+    private static final Duration MIN_HEDGE_DELAY = Duration.ofMillis(100);
+    private static final int HEDGE_LATENCY_FACTOR = 2;
+    private static final double LATENCY_SMOOTHING = 0.2;
+
+    private final Configuration configuration;
+    private final Clock clock;
+    private final Snapshots snapshots;
+    private final ConcurrentMap<String, Long> typicalLatencyNanos = new ConcurrentHashMap<>();
+    private final Set<SourceKey> restored = ConcurrentHashMap.newKeySet();
+    private final ConcurrentMap<SourceKey, CompletableFuture<?>> inFlight =
+        new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, CircuitBreaker> circuitBreakers =
+        new ConcurrentHashMap<>();
+    private volatile HttpClient httpClient = HttpClient.newHttpClient();
+
+    SourceFetcher(Configuration configuration, Clock clock, Snapshots snapshots) {
+        this.configuration = configuration;
+        this.clock = clock;
+        this.snapshots = snapshots;
+    }
+
+    HttpClient httpClient() {
+        return httpClient;
+    }
+
+    /**
+     * Replaces the HTTP client, whose connections and selector thread do not survive a SnapStart
+     * restore.
+     */
+    void resetHttpClient() {
+        HttpClient previous = httpClient;
+        httpClient = HttpClient.newHttpClient();
+        previous.shutdownNow();
+    }
+
+    /**
+     * Fetches every URL and completes once all of them have either produced a value or failed.
+     * Unless partial responses are enabled, the first failure fails the result. The latency,
+     * status, size and parse time of every source are recorded in the source's {@code metrics}.
+     */
+    <T> CompletableFuture<Result<T>> fetchAllAsync(List<String> urls, SourceCache<T> cache,
+        Function<InputStream, T> parser, Instant deadline, Metrics metrics) {
+        Optional<Duration> timeout = sourceTimeout(deadline);
+        List<CompletableFuture<T>> futures = IntStream.range(0, urls.size())
+            .mapToObj(i -> fetchAsync(urls.get(i), cache, parser, timeout,
+                metrics.source(i + 1, urls.get(i))))
+            .toList();
+
+        return CompletableFuture.allOf(futures.stream()
+                .map(future -> future.exceptionally(e -> null))
+                .toArray(CompletableFuture[]::new))
+            .thenApply(ignored -> collect(urls, futures, cache));
+    }
+
+    private <T> Result<T> collect(List<String> urls, List<CompletableFuture<T>> futures,
+        SourceCache<T> cache) {
+        List<T> values = new ArrayList<>(futures.size());
+        List<Integer> stale = new ArrayList<>();
+        List<Integer> skipped = new ArrayList<>();
+        for (int i = 0; i < futures.size(); i++) {
+            CompletableFuture<T> future = futures.get(i);
+            if (!future.isCompletedExceptionally() || !configuration.isPartialResponseEnabled()) {
+                values.add(future.join());
+                continue;
+            }
+            String url = urls.get(i);
+            log.warn("Leaving out source {} ({}): {}", i + 1, url,
+                future.exceptionNow().getMessage());
+            Optional<SourceCache.Entry<T>> lastGood = cache.get(url);
+            if (lastGood.isPresent()) {
+                values.add(lastGood.get().value());
+                stale.add(i + 1);
+            } else {
+                skipped.add(i + 1);
+            }
+        }
+        MergeReport report = stale.isEmpty() && skipped.isEmpty()
+            ? MergeReport.COMPLETE
+            : new MergeReport(List.copyOf(stale), List.copyOf(skipped), 0);
+        return new Result<>(values, report);
+    }
+
+    private Optional<Duration> sourceTimeout(Instant deadline) {
+        Duration configured = configuration.getSourceTimeout();
+        if (deadline.equals(Instant.MAX)) {
+            return configured.isZero() ? Optional.empty() : Optional.of(configured);
+        }
+        Duration remaining = Duration.between(clock.instant(), deadline);
+        if (remaining.isNegative() || remaining.isZero()) {
+            remaining = Duration.ofMillis(1);
+        }
+        return Optional.of(
+            configured.isZero() || remaining.compareTo(configured) < 0 ? remaining : configured);
+    }
+
+    private <T> CompletableFuture<T> fetchAsync(String url, SourceCache<T> cache,
+        Function<InputStream, T> parser, Optional<Duration> timeout, Metrics metrics) {
+        return sharedFetchAsync(url, cache, parser, timeout, metrics)
+            .whenComplete((value, error) -> metrics.putCount("Failed", error == null ? 0 : 1))
+            .exceptionally(e -> {
+                throw new FetchCalendarException("Error fetching or parsing ICS from " + url, e);
+            });
+    }
+
+    /**
+     * Joins the fetch of {@code url} that is already in flight, or else starts one that later
+     * callers can join until it completes. Only the caller that starts the fetch records its
+     * latency, status and size.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<T> sharedFetchAsync(String url, SourceCache<T> cache,
+        Function<InputStream, T> parser, Optional<Duration> timeout, Metrics metrics) {
+        SourceKey key = new SourceKey(cache, url);
+        AtomicBoolean started = new AtomicBoolean();
+        CompletableFuture<T> fetch = (CompletableFuture<T>) inFlight.computeIfAbsent(key,
+            ignored -> {
+                started.set(true);
+                return guardedFetchAsync(url, cache, parser, timeout, metrics);
+            });
+        metrics.putCount("Coalesced", started.get() ? 0 : 1);
+        if (started.get()) {
+            fetch.whenComplete((value, error) -> inFlight.remove(key, fetch));
+        } else {
+            log.debug("Joining fetch of {} already in flight", url);
+        }
+        return fetch;
+    }
+
+    /**
+     * Fetches {@code url} unless its circuit breaker refuses to, and tells the breaker how the
+     * fetch went.
+     */
+    private <T> CompletableFuture<T> guardedFetchAsync(String url, SourceCache<T> cache,
+        Function<InputStream, T> parser, Optional<Duration> timeout, Metrics metrics) {
+        if (configuration.getCircuitBreakerFailures() == 0) {
+            return timedFetchAsync(url, cache, parser, timeout, metrics);
+        }
+        CircuitBreaker breaker = circuitBreakers.computeIfAbsent(url, ignored ->
+            new CircuitBreaker(url, configuration.getCircuitBreakerFailures(),
+                configuration.getCircuitBreakerOpenDuration(), clock));
+        boolean acquired = breaker.tryAcquire();
+        metrics.property("Circuit", breaker.state().name());
+        metrics.putCount("CircuitOpen", acquired ? 0 : 1);
+        if (!acquired) {
+            return CompletableFuture.failedFuture(
+                new FetchCalendarException("Circuit open, not fetching " + url));
+        }
+        return timedFetchAsync(url, cache, parser, timeout, metrics).whenComplete(
+            (value, error) -> {
+                if (error == null) {
+                    breaker.recordSuccess();
+                } else {
+                    breaker.recordFailure();
+                }
+            });
+    }
+
+    private <T> CompletableFuture<T> timedFetchAsync(String url, SourceCache<T> cache,
+        Function<InputStream, T> parser, Optional<Duration> timeout, Metrics metrics) {
+        CompletableFuture<T> result = hedgedFetchAsync(url, cache, parser, timeout, metrics);
+        timeout.ifPresent(duration -> result.orTimeout(duration.toMillis(), TimeUnit.MILLISECONDS));
+        return result;
+    }
+
+    /**
+     * Sends a second request for the same URL when the first one takes more than twice as long as
+     * this source usually does, and completes with whichever succeeds first.
+     */
+    private <T> CompletableFuture<T> hedgedFetchAsync(String url, SourceCache<T> cache,
+        Function<InputStream, T> parser, Optional<Duration> timeout, Metrics metrics) {
+        CompletableFuture<T> primary = fetchOnceAsync(url, cache, parser, timeout, metrics);
+        Long typicalLatency = typicalLatencyNanos.get(url);
+        if (!configuration.isHedgingEnabled() || typicalLatency == null) {
+            return primary;
+        }
+
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicInteger pending = new AtomicInteger(1);
+        BiConsumer<T, Throwable> completion = (value, error) -> {
+            if (error == null) {
+                result.complete(value);
+            } else if (pending.decrementAndGet() == 0) {
+                result.completeExceptionally(error);
+            }
+        };
+        primary.whenComplete(completion);
+
+        long hedgeDelay = Math.max(MIN_HEDGE_DELAY.toNanos(),
+            HEDGE_LATENCY_FACTOR * typicalLatency);
+        CompletableFuture.delayedExecutor(hedgeDelay, TimeUnit.NANOSECONDS).execute(() -> {
+            if (!result.isDone()) {
+                pending.incrementAndGet();
+                log.info("Hedging slow request to {} after {} ms", url, hedgeDelay / 1_000_000);
+                metrics.putCount("Hedged", 1);
+                fetchOnceAsync(url, cache, parser, timeout, metrics).whenComplete(completion);
+            }
+        });
+        return result;
+    }
+
+    private <T> CompletableFuture<T> fetchOnceAsync(String url, SourceCache<T> cache,
+        Function<InputStream, T> parser, Optional<Duration> timeout, Metrics metrics) {
+        return cachedAsync(url, cache, parser, metrics).thenCompose(cached -> {
+            HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url));
+            cached.ifPresent(entry -> entry.applyTo(builder));
+            timeout.ifPresent(builder::timeout);
+            long start = System.nanoTime();
+            return httpClient.sendAsync(builder.build(),
+                    HttpResponse.BodyHandlers.ofInputStream())
+                .thenApply(response -> {
+                    metrics.putElapsed("FetchLatency", start);
+                    metrics.property("StatusCode", String.valueOf(response.statusCode()));
+                    metrics.putCount("NotModified", response.statusCode() == 304 ? 1 : 0);
+                    return readSource(url, response, cache, cached, parser, metrics);
+                })
+                .whenComplete((value, error) -> {
+                    if (error == null) {
+                        recordLatency(url, System.nanoTime() - start);
+                    }
+                });
+        });
+    }
+
+    /**
+     * Returns the cached copy of {@code url}. The first time a feed is fetched without one, the
+     * cache is seeded from its snapshot, so that the request can be conditional and the saved
+     * feed can stand in for the upstream if it fails.
+     */
+    private <T> CompletableFuture<Optional<SourceCache.Entry<T>>> cachedAsync(String url,
+        SourceCache<T> cache, Function<InputStream, T> parser, Metrics metrics) {
+        Optional<SourceCache.Entry<T>> cached = cache.get(url);
+        if (cached.isPresent() || !snapshots.isEnabled()
+            || !restored.add(new SourceKey(cache, url))) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            snapshots.readSource(url).ifPresent(source -> {
+                try {
+                    cache.put(url, source.etag(), source.lastModified(),
+                        parser.apply(budgeted(new ByteArrayInputStream(source.body()))),
+                        source.body().length);
+                    log.info("Restored {} from its snapshot", url);
+                    metrics.putCount("RestoredFromSnapshot", 1);
+                } catch (RuntimeException e) {
+                    log.warn("Ignoring snapshot of {} that cannot be parsed", url, e);
+                }
+            });
+            return cache.get(url);
+        });
+    }
+
+    private void recordLatency(String url, long latencyNanos) {
+        typicalLatencyNanos.merge(url, latencyNanos, (typical, latest) ->
+            (long) (typical + LATENCY_SMOOTHING * (latest - typical)));
+    }
+
+    /**
+     * Parses the body of a successful response. Bodies are parsed as they arrive, so the parse
+     * time recorded includes reading the body from the network, and a body that goes over the
+     * feed's byte or event budget fails the fetch before it has been read in full.
+     */
+    private <T> T readSource(String url, HttpResponse<InputStream> response, SourceCache<T> cache,
+        Optional<SourceCache.Entry<T>> cached, Function<InputStream, T> parser,
+        Metrics metrics) {
+        if (response.statusCode() == 304 && cached.isPresent()) {
+            closeQuietly(response.body());
+            log.debug("Reusing cached calendar for {}", url);
+            return cached.get().value();
+        }
+        BudgetedInputStream body = budgeted(validateResponse(response).body());
+        long start = System.nanoTime();
+        T value;
+        try {
+            if (snapshots.isEnabled()) {
+                byte[] bytes = readAllBytes(body);
+                value = parser.apply(new ByteArrayInputStream(bytes));
+                snapshots.writeSource(url, response, bytes);
+            } else {
+                value = parser.apply(body);
+            }
+        } catch (RuntimeException e) {
+            if (body.exceeded() != null) {
+                log.warn("Stopped reading {}, which has {}", url, body.exceeded());
+                metrics.putCount("OverBudget", 1);
+            }
+            throw e;
+        }
+        metrics.put("Bytes", body.count(), Metrics.Unit.BYTES);
+        metrics.putElapsed("ParseTime", start);
+        cache.put(url, response, value, body.count());
+        return value;
+    }
+
+    private BudgetedInputStream budgeted(InputStream inputStream) {
+        return new BudgetedInputStream(inputStream, configuration.getSourceMaxBytes(),
+            configuration.getSourceMaxEvents());
+    }
+
+    private byte[] readAllBytes(InputStream inputStream) {
+        try (inputStream) {
+            return inputStream.readAllBytes();
+        } catch (IOException e) {
+            throw new FetchCalendarException("Error reading ICS", e);
+        }
+    }
+
+    private HttpResponse<InputStream> validateResponse(HttpResponse<InputStream> response) {
+        if (response.statusCode() != 200) {
+            closeQuietly(response.body());
+            throw new FetchCalendarException("Failed to fetch ICS: HTTP " + response.statusCode());
+        }
+        return response;
+    }
+
+    private void closeQuietly(InputStream inputStream) {
+        try {
+            inputStream.close();
+        } catch (IOException e) {
+            log.debug("Error closing response body", e);
+        }
+    }
+
+    /**
+     * A feed as parsed for one cache. Calendars that parse the same feed differently, such as
+     * under different projections, fetch and cache it separately.
+     */
+    private record SourceKey(SourceCache<?> cache, String url) {
+
+    }
+
+    /**
+     * The values of the sources that could be used, in configuration order, and which sources
+     * could not.
+     */
+    record Result<T>(List<T> values, MergeReport report) {
+
+    }
+
+    private static class FetchCalendarException extends RuntimeException {
+
+        public FetchCalendarException(String message) {
+            super(message);
+        }
+
+        public FetchCalendarException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.stephenmatta.ics;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import com.stephenmatta.ics.IcsSplicer.EventText;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * An append-only file of event text that is kept on disk instead of on the heap, and read back
+ * one event at a time as the combined calendar is written.
+ *
+ * <p>The file is unlinked as soon as it has been opened, so nothing is left behind if the process
+ * dies, and its space is given back once no event that was spilled to it is reachable.
+ */
+final class SpillFile {
+
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final FileChannel channel;
+    private long size;
+
+    private SpillFile(FileChannel channel) {
+        this.channel = channel;
+        CLEANER.register(this, new Closer(channel));
+    }
+
+    static SpillFile create(Path directory) throws IOException {
+        Path path = Files.createTempFile(directory, "masher-spill-", ".ics");
+        try {
+            return new SpillFile(FileChannel.open(path, READ, WRITE));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    synchronized EventText append(String text) throws IOException {
+        ByteBuffer bytes = UTF_8.encode(text);
+        long offset = size;
+        int length = bytes.remaining();
+        while (bytes.hasRemaining()) {
+            size += channel.write(bytes, size);
+        }
+        return new SpilledText(this, offset, length);
+    }
+
+    private String read(long offset, int length) {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        try {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw new EOFException("Spill file ends before offset " + (offset + length));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return UTF_8.decode(buffer.flip()).toString();
+    }
+
+    private record SpilledText(SpillFile file, long offset, int length) implements EventText {
+
+        @Override
+        public String text() {
+            return file.read(offset, length);
+        }
+
+        @Override
+        public boolean isSpilled() {
+            return true;
+        }
+    }
+
+    private record Closer(FileChannel channel) implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // The file is already unlinked, so closing is all there is to clean up
+            }
+        }
+    }
+}
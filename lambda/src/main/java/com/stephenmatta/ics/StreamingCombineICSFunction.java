@@ -0,0 +1,58 @@
+package com.stephenmatta.ics;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestStreamHandler;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Clock;
+import java.util.Map;
+import java.util.function.Consumer;
+import org.jetbrains.annotations.TestOnly;
+
+/**
+ * Alternative entry point that reads the API Gateway proxy event and writes the proxy response
+ * itself, as UTF-8 straight into the output stream, instead of leaving the runtime to serialize
+ * the response map.
+ *
+ * <p>Every request is answered by {@link CombineICSFunction}, so both entry points serve the same
+ * calendars with the same validators, compression and metrics.
+ */
+public class StreamingCombineICSFunction implements RequestStreamHandler {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper()
+        .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    private final CombineICSFunction function;
+
+    @SuppressWarnings("unused") // Used by AWS Lambda
+    public StreamingCombineICSFunction() {
+        this.function = new CombineICSFunction();
+    }
+
+    @TestOnly
+    public StreamingCombineICSFunction(Configuration configuration) {
+        this(configuration, Clock.systemUTC(), null);
+    }
+
+    /**
+     * @param metricsSink receives every metrics record, or {@code null} to log them
+     */
+    @TestOnly
+    StreamingCombineICSFunction(Configuration configuration, Clock clock,
+        Consumer<String> metricsSink) {
+        this.function = new CombineICSFunction(configuration, clock, metricsSink);
+    }
+
+    @Override
+    public void handleRequest(InputStream input, OutputStream output, Context context)
+        throws IOException {
+        objectMapper.writeValue(output, function.handleRequest(readEvent(input), context));
+    }
+
+    private Object readEvent(InputStream input) throws IOException {
+        byte[] bytes = input.readAllBytes();
+        return bytes.length == 0 ? Map.of() : objectMapper.readValue(bytes, Object.class);
+    }
+}
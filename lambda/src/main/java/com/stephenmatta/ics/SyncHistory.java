@@ -0,0 +1,136 @@
+package com.stephenmatta.ics;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.stephenmatta.ics.IcsSplicer.RawCalendar;
+import com.stephenmatta.ics.IcsSplicer.RawEvent;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * The recent versions of one combined calendar, each reduced to a hash of every event, so that a
+ * client can be sent only the events that changed since the version it last saw.
+ *
+ * <p>Versions are identified by sync tokens, which are the calendar's entity tag without quotes.
+ * A version is only recorded when a client asks for changes, so calendars that nobody syncs cost
+ * nothing, and at most {@code maxVersions} are kept: a client whose token is older than that, or
+ * was issued by another container, is sent the whole calendar again.
+ */
+final class SyncHistory {
+
+    private final int maxVersions;
+    private final Deque<Version> versions = new ArrayDeque<>();
+    private RawCalendar latest;
+
+    SyncHistory(int maxVersions) {
+        this.maxVersions = maxVersions;
+    }
+
+    /**
+     * Returns the changes from the version identified by {@code syncToken} to {@code current},
+     * or all of {@code current} if that version is unknown or {@code syncToken} is empty.
+     */
+    synchronized Delta since(String syncToken, CombinedCalendar current) {
+        String currentToken = tokenOf(current);
+        if (versions.isEmpty() || !versions.getLast().token().equals(currentToken)) {
+            latest = extract(current.body());
+            versions.addLast(new Version(currentToken, hashes(latest)));
+            if (versions.size() > maxVersions) {
+                versions.removeFirst();
+            }
+        }
+        Map<EventKey, Long> currentHashes = versions.getLast().hashes();
+        Map<EventKey, Long> previous = versions.stream()
+            .filter(version -> version.token().equals(syncToken))
+            .findFirst()
+            .map(Version::hashes)
+            .orElse(null);
+
+        List<RawEvent> upserted = new ArrayList<>();
+        for (RawEvent event : latest.events()) {
+            EventKey key = EventKey.of(event);
+            if (previous == null || !currentHashes.get(key).equals(previous.get(key))) {
+                upserted.add(event);
+            }
+        }
+        List<EventKey> removed = previous == null ? List.of() : previous.keySet().stream()
+            .filter(key -> !currentHashes.containsKey(key))
+            .toList();
+        Set<String> tzIds = new LinkedHashSet<>();
+        upserted.forEach(event -> tzIds.addAll(event.tzIds()));
+        List<String> timezones = tzIds.stream()
+            .map(latest.timezones()::get)
+            .filter(Objects::nonNull)
+            .toList();
+        return new Delta(currentToken, previous == null, timezones,
+            upserted.stream().map(RawEvent::text).toList(), removed);
+    }
+
+    private static String tokenOf(CombinedCalendar calendar) {
+        return calendar.etag().substring(1, calendar.etag().length() - 1);
+    }
+
+    private static RawCalendar extract(String body) {
+        try {
+            return IcsSplicer.extract(new ByteArrayInputStream(body.getBytes(UTF_8)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Map<EventKey, Long> hashes(RawCalendar calendar) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        Map<EventKey, Long> hashes = new HashMap<>();
+        for (RawEvent event : calendar.events()) {
+            // Copies of an event from several feeds share a key, and change together
+            hashes.merge(EventKey.of(event),
+                ByteBuffer.wrap(digest.digest(event.text().getBytes(UTF_8))).getLong(),
+                (first, second) -> 31 * first + second);
+        }
+        return hashes;
+    }
+
+    /**
+     * Identifies an event, or one overridden occurrence of a recurring event, across versions.
+     *
+     * @param recurrenceId the value of the occurrence's RECURRENCE-ID, or {@code null}
+     */
+    record EventKey(String uid, String recurrenceId) {
+
+        static EventKey of(RawEvent event) {
+            return new EventKey(event.uid(), event.version().recurrenceId());
+        }
+    }
+
+    /**
+     * What a client has to apply to reach the version identified by {@code syncToken}: the
+     * VEVENTs that were added or changed, the VTIMEZONEs they refer to, and the events that were
+     * removed. After a full resync the client replaces everything it has with the VEVENTs.
+     */
+    record Delta(String syncToken, boolean fullResync, List<String> timezones,
+                 List<String> upserted, List<EventKey> removed) {
+
+    }
+
+    private record Version(String token, Map<EventKey, Long> hashes) {
+
+    }
+}
@@ -0,0 +1,73 @@
+package com.stephenmatta.ics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.stephenmatta.ics.CircuitBreaker.State;
+import java.time.Duration;
+import java.time.Instant;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class CircuitBreakerTest {
+
+    private MutableClock clock;
+    private CircuitBreaker breaker;
+
+    @BeforeEach
+    void setUp() {
+        clock = new MutableClock(Instant.parse("2024-01-01T00:00:00Z"));
+        breaker = new CircuitBreaker("https://example.com/a.ics", 3, Duration.ofSeconds(30), clock);
+    }
+
+    @Test
+    void shouldOpenAfterConsecutiveFailures() {
+        breaker.recordFailure();
+        breaker.recordFailure();
+        breaker.recordSuccess();
+        breaker.recordFailure();
+        breaker.recordFailure();
+        assertThat(breaker.tryAcquire()).isTrue();
+
+        breaker.recordFailure();
+
+        assertThat(breaker.state()).isEqualTo(State.OPEN);
+        assertThat(breaker.tryAcquire()).isFalse();
+        clock.advance(Duration.ofSeconds(29));
+        assertThat(breaker.tryAcquire()).isFalse();
+    }
+
+    @Test
+    void shouldLetOneProbeThroughAndCloseWhenItSucceeds() {
+        open();
+        clock.advance(Duration.ofSeconds(30));
+
+        assertThat(breaker.tryAcquire()).isTrue();
+        assertThat(breaker.state()).isEqualTo(State.HALF_OPEN);
+        assertThat(breaker.tryAcquire()).isFalse();
+
+        breaker.recordSuccess();
+        assertThat(breaker.state()).isEqualTo(State.CLOSED);
+        assertThat(breaker.tryAcquire()).isTrue();
+    }
+
+    @Test
+    void shouldBackOffLongerAfterEachFailedProbe() {
+        open();
+        clock.advance(Duration.ofSeconds(30));
+        assertThat(breaker.tryAcquire()).isTrue();
+
+        breaker.recordFailure();
+
+        assertThat(breaker.state()).isEqualTo(State.OPEN);
+        clock.advance(Duration.ofSeconds(59));
+        assertThat(breaker.tryAcquire()).isFalse();
+        clock.advance(Duration.ofSeconds(1));
+        assertThat(breaker.tryAcquire()).isTrue();
+    }
+
+    private void open() {
+        for (int i = 0; i < 3; i++) {
+            breaker.recordFailure();
+        }
+    }
+}
@@ -5,20 +5,40 @@ import static org.mockito.Mockito.when;
 
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
 import net.fortuna.ical4j.data.CalendarBuilder;
 import net.fortuna.ical4j.model.Calendar;
 import net.fortuna.ical4j.model.Component;
+import net.fortuna.ical4j.model.Property;
 import net.fortuna.ical4j.model.component.CalendarComponent;
 import net.fortuna.ical4j.model.component.VEvent;
+import okhttp3.mockwebserver.Dispatcher;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Mockito;
 
 class CombineICSFunctionTest {
@@ -128,6 +148,819 @@ class CombineICSFunctionTest {
         assertThat((String) response.get("body")).contains("Internal Server Error");
     }
 
+    @Test
+    void shouldReuseCachedCalendarWhenUpstreamIsNotModified() throws Exception {
+        String icsData = "BEGIN:VCALENDAR\nVERSION:2.0\nBEGIN:VEVENT\nUID:event1@example.com\nSUMMARY:Test Event\nDTSTART:20230901T120000Z\nDTEND:20230901T130000Z\nEND:VEVENT\nEND:VCALENDAR";
+        mockWebServer.enqueue(new MockResponse()
+            .setBody(icsData)
+            .addHeader("Content-Type", "text/calendar")
+            .addHeader("ETag", "\"v1\"")
+            .addHeader("Last-Modified", "Fri, 01 Sep 2023 12:00:00 GMT"));
+        mockWebServer.enqueue(new MockResponse().setResponseCode(304));
+
+        when(mockConfiguration.getCalendarUrls()).thenReturn(
+            List.of(mockWebServer.url("/event1.ics").toString()));
+
+        function.handleRequest(null, context);
+        Map<String, Object> response = function.handleRequest(null, context);
+
+        assertThat(mockWebServer.takeRequest().getHeader("If-None-Match")).isNull();
+        RecordedRequest conditionalRequest = mockWebServer.takeRequest();
+        assertThat(conditionalRequest.getHeader("If-None-Match")).isEqualTo("\"v1\"");
+        assertThat(conditionalRequest.getHeader("If-Modified-Since"))
+            .isEqualTo("Fri, 01 Sep 2023 12:00:00 GMT");
+
+        assertThat(response.get("statusCode")).isEqualTo(200);
+        List<CalendarComponent> events = parseICSResponse((String) response.get("body"));
+        assertThat(events).extracting(component -> component.getUid().get().getValue())
+            .containsExactly("event1@example.com");
+    }
+
+    @Test
+    void shouldNotSendConditionalRequestWithoutValidators() throws Exception {
+        String icsData = "BEGIN:VCALENDAR\nVERSION:2.0\nBEGIN:VEVENT\nUID:event1@example.com\nSUMMARY:Test Event\nDTSTART:20230901T120000Z\nDTEND:20230901T130000Z\nEND:VEVENT\nEND:VCALENDAR";
+        mockWebServer.enqueue(
+            new MockResponse().setBody(icsData).addHeader("Content-Type", "text/calendar"));
+        mockWebServer.enqueue(
+            new MockResponse().setBody(icsData).addHeader("Content-Type", "text/calendar"));
+
+        when(mockConfiguration.getCalendarUrls()).thenReturn(
+            List.of(mockWebServer.url("/event1.ics").toString()));
+
+        function.handleRequest(null, context);
+        function.handleRequest(null, context);
+
+        mockWebServer.takeRequest();
+        RecordedRequest secondRequest = mockWebServer.takeRequest();
+        assertThat(secondRequest.getHeader("If-None-Match")).isNull();
+        assertThat(secondRequest.getHeader("If-Modified-Since")).isNull();
+    }
+
+    @Test
+    void shouldSpliceMultipleEventCalendarsSuccessfully() throws Exception {
+        String icsData1 = "BEGIN:VCALENDAR\nVERSION:2.0\nBEGIN:VEVENT\nUID:event1@example.com\nSUMMARY:Test Event 1\nDTSTART:20230901T120000Z\nDTEND:20230901T130000Z\nEND:VEVENT\nEND:VCALENDAR";
+        String icsData2 = "BEGIN:VCALENDAR\nVERSION:2.0\nBEGIN:VEVENT\nUID:event2@example.com\nSUMMARY:Test Event 2\nDTSTART:20230902T120000Z\nDTEND:20230902T130000Z\nEND:VEVENT\nEND:VCALENDAR";
+
+        mockWebServer.enqueue(
+            new MockResponse().setBody(icsData1).addHeader("Content-Type", "text/calendar"));
+        mockWebServer.enqueue(
+            new MockResponse().setBody(icsData2).addHeader("Content-Type", "text/calendar"));
+
+        when(mockConfiguration.useSpliceEngine()).thenReturn(true);
+        when(mockConfiguration.getCalendarUrls()).thenReturn(List.of(
+            mockWebServer.url("/event1.ics").toString(),
+            mockWebServer.url("/event2.ics").toString()
+        ));
+
+        Map<String, Object> response = function.handleRequest(null, context);
+        assertThat(response.get("statusCode")).isEqualTo(200);
+
+        List<CalendarComponent> events = parseICSResponse((String) response.get("body"));
+
+        assertThat(events).extracting(component -> component.getUid().get().getValue())
+            .containsExactlyInAnyOrder("event1@example.com", "event2@example.com");
+        assertThat(events).allSatisfy(
+            component -> assertThat(component.getProperty(Property.DTSTAMP)).isPresent());
+    }
+
+    @Test
+    void shouldServeCachedResponseWithinTtl() throws Exception {
+        String icsData = "BEGIN:VCALENDAR\nVERSION:2.0\nBEGIN:VEVENT\nUID:event1@example.com\nSUMMARY:Test Event\nDTSTART:20230901T120000Z\nDTEND:20230901T130000Z\nEND:VEVENT\nEND:VCALENDAR";
+        mockWebServer.enqueue(
+            new MockResponse().setBody(icsData).addHeader("Content-Type", "text/calendar"));
+
+        when(mockConfiguration.getResponseCacheTtl()).thenReturn(Duration.ofMinutes(5));
+        when(mockConfiguration.getCalendarUrls()).thenReturn(
+            List.of(mockWebServer.url("/event1.ics").toString()));
+        function = new CombineICSFunction(mockConfiguration);
+
+        Map<String, Object> first = function.handleRequest(null, context);
+        Map<String, Object> second = function.handleRequest(null, context);
+
+        assertThat(second.get("statusCode")).isEqualTo(200);
+        assertThat(second.get("body")).isEqualTo(first.get("body"));
+        assertThat(mockWebServer.getRequestCount()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldCacheResponsesPerDateWindow() throws Exception {
+        String icsData = "BEGIN:VCALENDAR\nVERSION:2.0\nBEGIN:VEVENT\nUID:old@example.com\nDTSTAMP:20230801T000000Z\nDTSTART:20230901T120000Z\nDTEND:20230901T130000Z\nEND:VEVENT\nBEGIN:VEVENT\nUID:new@example.com\nDTSTAMP:20230801T000000Z\nDTSTART:20240901T120000Z\nDTEND:20240901T130000Z\nEND:VEVENT\nEND:VCALENDAR";
+        mockWebServer.enqueue(
+            new MockResponse().setBody(icsData).addHeader("Content-Type", "text/calendar"));
+        mockWebServer.enqueue(
+            new MockResponse().setBody(icsData).addHeader("Content-Type", "text/calendar"));
+
+        when(mockConfiguration.getResponseCacheTtl()).thenReturn(Duration.ofMinutes(5));
+        when(mockConfiguration.getCalendarUrls()).thenReturn(
+            List.of(mockWebServer.url("/events.ics").toString()));
+        function = new CombineICSFunction(mockConfiguration);
+        Map<String, Object> windowed = Map.of("queryStringParameters",
+            Map.of("from", "2024-01-01", "to", "2024-12-31"));
+
+        Map<String, Object> everything = function.handleRequest(null, context);
+        Map<String, Object> recent = function.handleRequest(windowed, context);
+        function.handleRequest(windowed, context);
+
+        assertThat(parseICSResponse((String) everything.get("body")))
+            .extracting(component -> component.getUid().get().getValue())
+            .containsExactly("old@example.com", "new@example.com");
+        assertThat(parseICSResponse((String) recent.get("body")))
+            .extracting(component -> component.getUid().get().getValue())
+            .containsExactly("new@example.com");
+        assertThat(mockWebServer.getRequestCount()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldRejectMalformedDateWindow() {
+        when(mockConfiguration.getCalendarUrls()).thenReturn(
+            List.of(mockWebServer.url("/event1.ics").toString()));
+
+        Map<String, Object> response = function.handleRequest(
+            Map.of("queryStringParameters", Map.of("pastDays", "soon")), context);
+
+        assertThat(response.get("statusCode")).isEqualTo(400);
+        assertThat((String) response.get("body")).contains("pastDays");
+        assertThat(mockWebServer.getRequestCount()).isZero();
+    }
+
+    @Test
+    void shouldDropEventsDuplicatedAcrossFeeds() throws Exception {
+        String icsData1 = "BEGIN:VCALENDAR\nVERSION:2.0\nBEGIN:VEVENT\nUID:shared@example.com\nSEQUENCE:1\nSUMMARY:Team sync\nDTSTART:20230901T120000Z\nDTEND:20230901T130000Z\nEND:VEVENT\nEND:VCALENDAR";
+        String icsData2 = "BEGIN:VCALENDAR\nVERSION:2.0\nBEGIN:VEVENT\nUID:shared@example.com\nSEQUENCE:1\nSUMMARY:Team sync\nDTSTART:20230901T120000Z\nDTEND:20230901T130000Z\nEND:VEVENT\nBEGIN:VEVENT\nUID:event2@example.com\nSUMMARY:Test Event 2\nDTSTART:20230902T120000Z\nDTEND:20230902T130000Z\nEND:VEVENT\nEND:VCALENDAR";
+        mockWebServer.enqueue(
+            new MockResponse().setBody(icsData1).addHeader("Content-Type", "text/calendar"));
+        mockWebServer.enqueue(
+            new MockResponse().setBody(icsData2).addHeader("Content-Type", "text/calendar"));
+
+        when(mockConfiguration.isDeduplicationEnabled()).thenReturn(true);
+        when(mockConfiguration.getCalendarUrls()).thenReturn(List.of(
+            mockWebServer.url("/team.ics").toString(),
+            mockWebServer.url("/personal.ics").toString()));
+
+        Map<String, Object> response = function.handleRequest(null, context);
+
+        assertThat(response.get("statusCode")).isEqualTo(200);
+        assertThat((Map<String, String>) response.get("headers"))
+            .containsEntry("X-Masher-Duplicates-Dropped", "1");
+        List<CalendarComponent> events = parseICSResponse((String) response.get("body"));
+        assertThat(events).extracting(component -> component.getUid().get().getValue())
+            .containsExactlyInAnyOrder("shared@example.com", "event2@example.com");
+    }
+
+    @Test
+    void shouldEmitOneTimezonePerReferencedTzid() throws Exception {
+        String berlin = "BEGIN:VTIMEZONE\nTZID:Europe/Berlin\nBEGIN:STANDARD\nDTSTART:19701025T030000\nTZOFFSETFROM:+0200\nTZOFFSETTO:+0100\nEND:STANDARD\nEND:VTIMEZONE\n";
+        String chicago = "BEGIN:VTIMEZONE\nTZID:America/Chicago\nBEGIN:STANDARD\nDTSTART:19701101T020000\nTZOFFSETFROM:-0500\nTZOFFSETTO:-0600\nEND:STANDARD\nEND:VTIMEZONE\n";
+        String icsData1 = "BEGIN:VCALENDAR\nVERSION:2.0\n" + berlin + chicago + "BEGIN:VEVENT\nUID:berlin@example.com\nDTSTAMP:20230801T000000Z\nDTSTART;TZID=Europe/Berlin:20231201T120000\nDTEND;TZID=Europe/Berlin:20231201T130000\nEND:VEVENT\nEND:VCALENDAR";
+        String icsData2 = "BEGIN:VCALENDAR\nVERSION:2.0\n" + berlin + "BEGIN:VEVENT\nUID:new-york@example.com\nDTSTAMP:20230801T000000Z\nDTSTART;TZID=America/New_York:20231202T120000\nEND:VEVENT\nBEGIN:VEVENT\nUID:also-berlin@example.com\nDTSTAMP:20230801T000000Z\nDTSTART;TZID=Europe/Berlin:20231203T120000\nEND:VEVENT\nEND:VCALENDAR";
+        mockWebServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().addHeader("Content-Type", "text/calendar")
+                    .setBody(request.getPath().equals("/berlin.ics") ? icsData1 : icsData2);
+            }
+        });
+        when(mockConfiguration.getCalendarUrls()).thenReturn(List.of(
+            mockWebServer.url("/berlin.ics").toString(),
+            mockWebServer.url("/mixed.ics").toString()));
+
+        for (boolean splice : List.of(false, true)) {
+            when(mockConfiguration.useSpliceEngine()).thenReturn(splice);
+
+            Map<String, Object> response = function.handleRequest(null, context);
+
+            assertThat(response.get("statusCode")).isEqualTo(200);
+            Calendar calendar = new CalendarBuilder().build(
+                new ByteArrayInputStream(((String) response.get("body")).getBytes()));
+            assertThat(calendar.<CalendarComponent>getComponents(Component.VTIMEZONE))
+                .extracting(timezone -> timezone.getRequiredProperty(Property.TZID).getValue())
+                .containsExactly("Europe/Berlin", "America/New_York");
+            assertThat(calendar.<CalendarComponent>getComponents()).extracting(Component::getName)
+                .containsExactly("VTIMEZONE", "VTIMEZONE", "VEVENT", "VEVENT", "VEVENT");
+        }
+    }
+
+    @Test
+    void shouldAnswerMatchingIfNoneMatchWithNotModified() {
+        String icsData = "BEGIN:VCALENDAR\nVERSION:2.0\nBEGIN:VEVENT\nUID:event1@example.com\nSUMMARY:Test Event\nDTSTAMP:20230101T000000Z\nDTSTART:20230901T120000Z\nDTEND:20230901T130000Z\nEND:VEVENT\nEND:VCALENDAR";
+        mockWebServer.enqueue(
+            new MockResponse().setBody(icsData).addHeader("Content-Type", "text/calendar"));
+        mockWebServer.enqueue(
+            new MockResponse().setBody(icsData).addHeader("Content-Type", "text/calendar"));
+
+        when(mockConfiguration.getClientMaxAge()).thenReturn(Duration.ofMinutes(15));
+        when(mockConfiguration.getCalendarUrls()).thenReturn(
+            List.of(mockWebServer.url("/event1.ics").toString()));
+
+        Map<String, Object> first = function.handleRequest(null, context);
+        Map<String, String> firstHeaders = (Map<String, String>) first.get("headers");
+        assertThat(firstHeaders).containsKeys("ETag", "Last-Modified")
+            .containsEntry("Cache-Control", "max-age=900");
+
+        Map<String, Object> second = function.handleRequest(
+            Map.of("headers", Map.of("if-none-match", firstHeaders.get("ETag"))), context);
+
+        assertThat(second.get("statusCode")).isEqualTo(304);
+        assertThat(second.get("body")).isEqualTo("");
+        assertThat((Map<String, String>) second.get("headers"))
+            .containsEntry("ETag", firstHeaders.get("ETag"))
+            .containsEntry("Last-Modified", firstHeaders.get("Last-Modified"));
+    }
+
+    @Test
+    void shouldAnswerIfModifiedSinceWithNotModifiedOnlyWhenUnchanged() {
+        String icsData1 = "BEGIN:VCALENDAR\nVERSION:2.0\nBEGIN:VEVENT\nUID:event1@example.com\nSUMMARY:Test Event 1\nDTSTAMP:20230101T000000Z\nDTSTART:20230901T120000Z\nDTEND:20230901T130000Z\nEND:VEVENT\nEND:VCALENDAR";
+        String icsData2 = "BEGIN:VCALENDAR\nVERSION:2.0\nBEGIN:VEVENT\nUID:event2@example.com\nSUMMARY:Test Event 2\nDTSTAMP:20230101T000000Z\nDTSTART:20230902T120000Z\nDTEND:20230902T130000Z\nEND:VEVENT\nEND:VCALENDAR";
+        mockWebServer.enqueue(
+            new MockResponse().setBody(icsData1).addHeader("Content-Type", "text/calendar"));
+        mockWebServer.enqueue(
+            new MockResponse().setBody(icsData1).addHeader("Content-Type", "text/calendar"));
+        mockWebServer.enqueue(
+            new MockResponse().setBody(icsData2).addHeader("Content-Type", "text/calendar"));
+
+        when(mockConfiguration.getCalendarUrls()).thenReturn(
+            List.of(mockWebServer.url("/event1.ics").toString()));
+        MutableClock clock = new MutableClock(Instant.parse("2024-01-01T00:00:00Z"));
+        function = new CombineICSFunction(mockConfiguration, clock);
+
+        Map<String, Object> first = function.handleRequest(null, context);
+        clock.advance(Duration.ofMinutes(1));
+        String lastModified = ((Map<String, String>) first.get("headers")).get("Last-Modified");
+        Map<String, Object> request = Map.of("headers", Map.of("If-Modified-Since", lastModified));
+
+        assertThat(function.handleRequest(request, context).get("statusCode")).isEqualTo(304);
+        assertThat(function.handleRequest(request, context).get("statusCode")).isEqualTo(200);
+    }
+
+    @Test
+    void shouldGzipResponseWhenClientAcceptsIt() throws Exception {
+        String icsData = "BEGIN:VCALENDAR\nVERSION:2.0\nBEGIN:VEVENT\nUID:event1@example.com\nSUMMARY:Test Event\nDTSTART:20230901T120000Z\nDTEND:20230901T130000Z\nEND:VEVENT\nEND:VCALENDAR";
+        mockWebServer.enqueue(
+            new MockResponse().setBody(icsData).addHeader("Content-Type", "text/calendar"));
+
+        when(mockConfiguration.getCalendarUrls()).thenReturn(
+            List.of(mockWebServer.url("/event1.ics").toString()));
+
+        Map<String, Object> response = function.handleRequest(
+            Map.of("headers", Map.of("Accept-Encoding", "br;q=1.0, gzip;q=0.8")), context);
+
+        assertThat(response.get("isBase64Encoded")).isEqualTo(true);
+        assertThat((Map<String, String>) response.get("headers"))
+            .containsEntry("Content-Encoding", "gzip")
+            .containsEntry("Vary", "Accept-Encoding");
+
+        byte[] compressed = Base64.getDecoder().decode((String) response.get("body"));
+        try (InputStream body = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            List<CalendarComponent> events = parseICSResponse(
+                new String(body.readAllBytes(), StandardCharsets.UTF_8));
+            assertThat(events).extracting(component -> component.getUid().get().getValue())
+                .containsExactly("event1@example.com");
+        }
+    }
+
+    @Test
+    void shouldNotGzipResponseBelowThresholdOrWhenRefused() {
+        String icsData = "BEGIN:VCALENDAR\nVERSION:2.0\nBEGIN:VEVENT\nUID:event1@example.com\nSUMMARY:Test Event\nDTSTART:20230901T120000Z\nDTEND:20230901T130000Z\nEND:VEVENT\nEND:VCALENDAR";
+        mockWebServer.enqueue(
+            new MockResponse().setBody(icsData).addHeader("Content-Type", "text/calendar"));
+        mockWebServer.enqueue(
+            new MockResponse().setBody(icsData).addHeader("Content-Type", "text/calendar"));
+        mockWebServer.enqueue(
+            new MockResponse().setBody(icsData).addHeader("Content-Type", "text/calendar"));
+
+        when(mockConfiguration.getCalendarUrls()).thenReturn(
+            List.of(mockWebServer.url("/event1.ics").toString()));
+
+        Map<String, Object> refused = function.handleRequest(
+            Map.of("headers", Map.of("Accept-Encoding", "gzip;q=0, identity")), context);
+        assertThat(refused.get("isBase64Encoded")).isEqualTo(false);
+        Map<String, Object> refusedOverWildcard = function.handleRequest(
+            Map.of("headers", Map.of("Accept-Encoding", "gzip;q=0, *")), context);
+        assertThat(refusedOverWildcard.get("isBase64Encoded")).isEqualTo(false);
+
+        when(mockConfiguration.getCompressionThreshold()).thenReturn(1024 * 1024);
+        Map<String, Object> small = function.handleRequest(
+            Map.of("headers", Map.of("Accept-Encoding", "gzip")), context);
+        assertThat(small.get("isBase64Encoded")).isEqualTo(false);
+        assertThat((Map<String, String>) small.get("headers")).doesNotContainKey(
+            "Content-Encoding");
+    }
+
+    @Test
+    void shouldLeaveOutSourceThatMissesTheDeadline() throws Exception {
+        mockWebServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                MockResponse response = new MockResponse().setBody(eventCalendar(request.getPath()))
+                    .addHeader("Content-Type", "text/calendar");
+                return request.getPath().equals("/slow.ics")
+                    ? response.setHeadersDelay(5, TimeUnit.SECONDS)
+                    : response;
+            }
+        });
+        when(mockConfiguration.getCalendarUrls()).thenReturn(List.of(
+            mockWebServer.url("/fast.ics").toString(),
+            mockWebServer.url("/slow.ics").toString()));
+        when(mockConfiguration.isPartialResponseEnabled()).thenReturn(true);
+        when(mockConfiguration.getDeadlineMargin()).thenReturn(Duration.ofMillis(500));
+        when(context.getRemainingTimeInMillis()).thenReturn(1000);
+
+        long start = System.nanoTime();
+        Map<String, Object> response = function.handleRequest(null, context);
+
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(2));
+        assertThat(response.get("statusCode")).isEqualTo(200);
+        assertThat((Map<String, String>) response.get("headers"))
+            .containsEntry("X-Masher-Skipped-Sources", "2")
+            .doesNotContainKey("X-Masher-Stale-Sources");
+        List<CalendarComponent> events = parseICSResponse((String) response.get("body"));
+        assertThat(events).extracting(component -> component.getUid().get().getValue())
+            .containsExactly("/fast.ics@example.com");
+    }
+
+    @Test
+    void shouldServeLastGoodCopyOfFailingSource() throws Exception {
+        AtomicInteger flakyRequests = new AtomicInteger();
+        mockWebServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if (request.getPath().equals("/flaky.ics") && flakyRequests.incrementAndGet() > 1) {
+                    return new MockResponse().setResponseCode(503);
+                }
+                return new MockResponse().setBody(eventCalendar(request.getPath()))
+                    .addHeader("Content-Type", "text/calendar");
+            }
+        });
+        when(mockConfiguration.getCalendarUrls()).thenReturn(List.of(
+            mockWebServer.url("/steady.ics").toString(),
+            mockWebServer.url("/flaky.ics").toString()));
+        when(mockConfiguration.isPartialResponseEnabled()).thenReturn(true);
+
+        function.handleRequest(null, context);
+        Map<String, Object> response = function.handleRequest(null, context);
+
+        assertThat(response.get("statusCode")).isEqualTo(200);
+        assertThat((Map<String, String>) response.get("headers"))
+            .containsEntry("X-Masher-Stale-Sources", "2")
+            .doesNotContainKey("X-Masher-Skipped-Sources");
+        List<CalendarComponent> events = parseICSResponse((String) response.get("body"));
+        assertThat(events).extracting(component -> component.getUid().get().getValue())
+            .containsExactlyInAnyOrder("/steady.ics@example.com", "/flaky.ics@example.com");
+    }
+
+    @Test
+    void shouldStopFetchingSourceThatKeepsFailing() throws Exception {
+        AtomicInteger downRequests = new AtomicInteger();
+        mockWebServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if (request.getPath().equals("/down.ics")) {
+                    downRequests.incrementAndGet();
+                    return new MockResponse().setResponseCode(503);
+                }
+                return new MockResponse().setBody(eventCalendar(request.getPath()))
+                    .addHeader("Content-Type", "text/calendar");
+            }
+        });
+        when(mockConfiguration.getCalendarUrls()).thenReturn(List.of(
+            mockWebServer.url("/up.ics").toString(),
+            mockWebServer.url("/down.ics").toString()));
+        when(mockConfiguration.isPartialResponseEnabled()).thenReturn(true);
+        when(mockConfiguration.getCircuitBreakerFailures()).thenReturn(2);
+        when(mockConfiguration.getCircuitBreakerOpenDuration()).thenReturn(Duration.ofMinutes(1));
+
+        for (int i = 0; i < 4; i++) {
+            Map<String, Object> response = function.handleRequest(null, context);
+            assertThat(response.get("statusCode")).isEqualTo(200);
+            assertThat((Map<String, String>) response.get("headers"))
+                .containsEntry("X-Masher-Skipped-Sources", "2");
+        }
+
+        assertThat(downRequests).hasValue(2);
+    }
+
+    @Test
+    void shouldHedgeSourceThatIsSlowerThanUsual() throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        mockWebServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                MockResponse response = new MockResponse().setBody(eventCalendar(request.getPath()))
+                    .addHeader("Content-Type", "text/calendar");
+                return requests.incrementAndGet() == 2
+                    ? response.setHeadersDelay(5, TimeUnit.SECONDS)
+                    : response;
+            }
+        });
+        when(mockConfiguration.getCalendarUrls()).thenReturn(
+            List.of(mockWebServer.url("/event1.ics").toString()));
+        when(mockConfiguration.isHedgingEnabled()).thenReturn(true);
+
+        function.handleRequest(null, context);
+        long start = System.nanoTime();
+        Map<String, Object> response = function.handleRequest(null, context);
+
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(2));
+        assertThat(requests).hasValue(3);
+        assertThat(response.get("statusCode")).isEqualTo(200);
+    }
+
+    @Test
+    void shouldParsePrimingCalendarWhole() throws Exception {
+        try (InputStream inputStream = CombineICSFunction.class.getResourceAsStream(
+            "/priming.ics")) {
+            List<VEvent> events = new CalendarBuilder().build(inputStream)
+                .getComponents(Component.VEVENT);
+
+            assertThat(events).hasSize(4)
+                .allMatch(event -> event.getProperty(Property.DTSTART).isPresent());
+            assertThat(events.get(0).getProperty(Property.SUMMARY).get().getValue())
+                .endsWith("folded across more than one content line");
+            assertThat(events.get(0).getProperty(Property.RRULE)).isPresent();
+        }
+    }
+
+    @Test
+    void shouldServeRequestsAfterPrimingAndRestore() throws Exception {
+        String icsData = "BEGIN:VCALENDAR\nVERSION:2.0\nBEGIN:VEVENT\nUID:event1@example.com\nSUMMARY:Test Event\nDTSTART:20230901T120000Z\nDTEND:20230901T130000Z\nEND:VEVENT\nEND:VCALENDAR";
+        mockWebServer.enqueue(
+            new MockResponse().setBody(icsData).addHeader("Content-Type", "text/calendar"));
+
+        when(mockConfiguration.getCalendarUrls()).thenReturn(
+            List.of(mockWebServer.url("/event1.ics").toString()));
+
+        function.beforeCheckpoint(null);
+        function.afterRestore(null);
+        assertThat(mockWebServer.getRequestCount()).isZero();
+
+        Map<String, Object> response = function.handleRequest(null, context);
+
+        // Priming ran against the bundled calendar, so the feed is fetched only now, once, with
+        // the HTTP client that replaced the one from before the checkpoint
+        assertThat(mockWebServer.getRequestCount()).isEqualTo(1);
+        assertThat(response.get("statusCode")).isEqualTo(200);
+        List<CalendarComponent> events = parseICSResponse((String) response.get("body"));
+        assertThat(events).extracting(component -> component.getUid().get().getValue())
+            .containsExactly("event1@example.com");
+    }
+
+    @Test
+    void shouldServeSnapshotOnColdStartWhileUpstreamIsDown(@TempDir Path snapshots)
+        throws Exception {
+        AtomicBoolean upstreamUp = new AtomicBoolean();
+        mockWebServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return upstreamUp.get()
+                    ? new MockResponse().setBody(eventCalendar(request.getPath()))
+                    .addHeader("Content-Type", "text/calendar")
+                    : new MockResponse().setResponseCode(503);
+            }
+        });
+
+        for (Duration ttl : List.of(Duration.ZERO, Duration.ofMinutes(5))) {
+            // A configuration of its own, since the last iteration may still be refreshing
+            Configuration configuration = new Configuration(Map.of(
+                "ICS_URLS", mockWebServer.url("/event1.ics").toString(),
+                "ICS_SNAPSHOT_LOCATION", snapshots.resolve(ttl.toString()).toString(),
+                "ICS_CACHE_TTL_SECONDS", String.valueOf(ttl.toSeconds()),
+                "ICS_METRICS", "false"));
+            upstreamUp.set(true);
+            Map<String, Object> prewarmed = new CombineICSFunction(configuration)
+                .handleRequest(Map.of("prewarm", true), context);
+
+            upstreamUp.set(false);
+            Map<String, Object> response = new CombineICSFunction(configuration)
+                .handleRequest(null, context);
+
+            assertThat(response.get("statusCode")).isEqualTo(200);
+            assertThat((Map<String, String>) response.get("headers"))
+                .containsEntry("ETag", (String) prewarmed.get("etag"));
+            assertThat(parseICSResponse((String) response.get("body")))
+                .extracting(component -> component.getUid().get().getValue())
+                .containsExactly("/event1.ics@example.com");
+        }
+    }
+
+    @Test
+    void shouldRevalidateSourceSnapshotOnColdStart(@TempDir Path snapshots) throws Exception {
+        mockWebServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if ("\"v1\"".equals(request.getHeader("If-None-Match"))) {
+                    return new MockResponse().setResponseCode(304);
+                }
+                return new MockResponse().setBody(eventCalendar(request.getPath()))
+                    .addHeader("Content-Type", "text/calendar").addHeader("ETag", "\"v1\"");
+            }
+        });
+        when(mockConfiguration.getCalendarUrls()).thenReturn(
+            List.of(mockWebServer.url("/event1.ics").toString()));
+        when(mockConfiguration.getSnapshotLocation()).thenReturn(Optional.of(snapshots.toUri()));
+        new CombineICSFunction(mockConfiguration).handleRequest(Map.of("prewarm", true), context);
+        mockWebServer.takeRequest();
+
+        Map<String, Object> response = new CombineICSFunction(mockConfiguration).handleRequest(
+            Map.of("queryStringParameters", Map.of("from", "2023-01-01")), context);
+
+        assertThat(mockWebServer.takeRequest().getHeader("If-None-Match")).isEqualTo("\"v1\"");
+        assertThat(response.get("statusCode")).isEqualTo(200);
+        assertThat(parseICSResponse((String) response.get("body")))
+            .extracting(component -> component.getUid().get().getValue())
+            .containsExactly("/event1.ics@example.com");
+        // Windows chosen by clients are never saved, only the one prewarming keeps fresh
+        assertThat(snapshots.resolve("calendars").toFile().list()).hasSize(1);
+    }
+
+    @Test
+    void shouldEmitRequestBuildAndSourceMetrics() throws Exception {
+        mockWebServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setBody(eventCalendar(request.getPath()))
+                    .addHeader("Content-Type", "text/calendar");
+            }
+        });
+        when(mockConfiguration.getCalendarUrls()).thenReturn(List.of(
+            mockWebServer.url("/event1.ics").toString(),
+            mockWebServer.url("/event2.ics").toString()));
+        when(mockConfiguration.getResponseCacheTtl()).thenReturn(Duration.ofMinutes(5));
+        when(mockConfiguration.isMetricsEnabled()).thenReturn(true);
+        when(mockConfiguration.getMetricsNamespace()).thenReturn("Masher");
+        when(context.getAwsRequestId()).thenReturn("a \"quoted\"\n\u0001 id");
+        List<String> lines = new CopyOnWriteArrayList<>();
+        function = new CombineICSFunction(mockConfiguration, Clock.systemUTC(), lines::add);
+
+        function.handleRequest(null, context);
+        function.handleRequest(null, context);
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        List<JsonNode> records = lines.stream().map(line -> {
+            try {
+                return objectMapper.readTree(line);
+            } catch (Exception e) {
+                throw new AssertionError(line, e);
+            }
+        }).toList();
+        assertThat(records).extracting(record -> record.path("Operation").asText(
+                record.path("Source").asText()))
+            .containsExactly("Build", "1", "2", "Request", "Request");
+        for (JsonNode record : records) {
+            JsonNode directive = record.get("_aws").get("CloudWatchMetrics").get(0);
+            assertThat(directive.get("Namespace").asText()).isEqualTo("Masher");
+            directive.get("Metrics").forEach(metric ->
+                assertThat(record.has(metric.get("Name").asText())).isTrue());
+        }
+
+        JsonNode build = records.get(0);
+        assertThat(build.get("Engine").asText()).isEqualTo("ical4j");
+        assertThat(build.get("Events").asInt()).isEqualTo(2);
+        assertThat(build.get("OutputBytes").asInt()).isPositive();
+        assertThat(build.has("FetchTime") && build.has("MergeTime")
+            && build.has("SerializeTime")).isTrue();
+        JsonNode source = records.get(2);
+        assertThat(source.get("_aws").get("CloudWatchMetrics").get(0).get("Dimensions"))
+            .hasToString("[[\"Calendar\",\"Source\"]]");
+        assertThat(source.get("Calendar").asText()).isEqualTo("/");
+        assertThat(source.get("Url").asText()).endsWith("/event2.ics");
+        assertThat(source.get("StatusCode").asText()).isEqualTo("200");
+        assertThat(source.get("Bytes").asInt()).isEqualTo(eventCalendar("/event2.ics").length());
+        assertThat(source.get("Events").asInt()).isEqualTo(1);
+        assertThat(source.has("FetchLatency") && source.has("ParseTime")).isTrue();
+        assertThat(records.get(3).get("RequestId").asText()).isEqualTo("a \"quoted\"\n\u0001 id");
+        assertThat(records.get(3).get("ColdStart").asInt()).isEqualTo(1);
+        assertThat(records.get(3).get("CacheHit").asInt()).isEqualTo(0);
+        assertThat(records.get(4).get("ColdStart").asInt()).isEqualTo(0);
+        assertThat(records.get(4).get("CacheHit").asInt()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldTellSourcesOfNamedCalendarsApartInMetrics() throws Exception {
+        mockWebServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setBody(eventCalendar(request.getPath()))
+                    .addHeader("Content-Type", "text/calendar");
+            }
+        });
+        when(mockConfiguration.getCalendars()).thenReturn(Map.of(
+            "family", List.of(mockWebServer.url("/family.ics").toString()),
+            "team", List.of(mockWebServer.url("/team.ics").toString())));
+        when(mockConfiguration.isMetricsEnabled()).thenReturn(true);
+        when(mockConfiguration.getMetricsNamespace()).thenReturn("Masher");
+        List<String> lines = new CopyOnWriteArrayList<>();
+        function = new CombineICSFunction(mockConfiguration, Clock.systemUTC(), lines::add);
+
+        function.handleRequest(Map.of("prewarm", true), context);
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        List<String> sources = new ArrayList<>();
+        for (String line : lines) {
+            JsonNode record = objectMapper.readTree(line);
+            if (record.has("Source")) {
+                sources.add(record.get("Calendar").asText() + "/" + record.get("Source").asText()
+                    + " " + record.get("Url").asText().replaceAll(".*/", ""));
+            }
+        }
+        assertThat(sources).containsExactlyInAnyOrder("family/1 family.ics", "team/1 team.ics");
+    }
+
+    @Test
+    void shouldNotEmitMetricsWhenDisabled() {
+        mockWebServer.enqueue(new MockResponse().setBody(eventCalendar("/event1.ics"))
+            .addHeader("Content-Type", "text/calendar"));
+        when(mockConfiguration.getCalendarUrls()).thenReturn(
+            List.of(mockWebServer.url("/event1.ics").toString()));
+        List<String> lines = new CopyOnWriteArrayList<>();
+        function = new CombineICSFunction(mockConfiguration, Clock.systemUTC(), lines::add);
+
+        assertThat(function.handleRequest(null, context).get("statusCode")).isEqualTo(200);
+        assertThat(lines).isEmpty();
+    }
+
+    @Test
+    void shouldSendOnlyEventsChangedSinceSyncToken() throws Exception {
+        AtomicBoolean changed = new AtomicBoolean();
+        mockWebServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                String events = changed.get()
+                    ? event("a", "Moved") + event("c", "New")
+                    : event("a", "Planned") + event("b", "Cancelled");
+                return new MockResponse().setBody(
+                        "BEGIN:VCALENDAR\nVERSION:2.0\n" + events + "END:VCALENDAR")
+                    .addHeader("Content-Type", "text/calendar");
+            }
+        });
+        when(mockConfiguration.getCalendarUrls()).thenReturn(
+            List.of(mockWebServer.url("/events.ics").toString()));
+        ObjectMapper objectMapper = new ObjectMapper();
+
+        JsonNode initial = objectMapper.readTree((String) function.handleRequest(
+            Map.of("queryStringParameters", Map.of("syncToken", "")), context).get("body"));
+        changed.set(true);
+        Map<String, Object> response = function.handleRequest(Map.of("queryStringParameters",
+            Map.of("syncToken", initial.get("syncToken").asText())), context);
+        JsonNode delta = objectMapper.readTree((String) response.get("body"));
+        JsonNode expired = objectMapper.readTree((String) function.handleRequest(
+            Map.of("queryStringParameters", Map.of("syncToken", "unknown")), context)
+            .get("body"));
+
+        assertThat(initial.get("fullResync").asBoolean()).isTrue();
+        assertThat(initial.get("upserted")).hasSize(2);
+        assertThat((Map<String, String>) response.get("headers"))
+            .containsEntry("Content-Type", "application/json");
+        assertThat(delta.get("fullResync").asBoolean()).isFalse();
+        assertThat(delta.get("syncToken").asText()).isNotEqualTo(
+            initial.get("syncToken").asText());
+        assertThat(delta.get("upserted")).extracting(JsonNode::asText)
+            .satisfiesExactly(
+                event -> assertThat(event).contains("UID:a@example.com", "SUMMARY:Moved"),
+                event -> assertThat(event).contains("UID:c@example.com"));
+        assertThat(delta.get("removed")).extracting(removed -> removed.get("uid").asText())
+            .containsExactly("b@example.com");
+        assertThat(expired.get("fullResync").asBoolean()).isTrue();
+        assertThat(expired.get("upserted")).hasSize(2);
+    }
+
+    private static String event(String uid, String summary) {
+        return "BEGIN:VEVENT\nUID:" + uid + "@example.com\nDTSTAMP:20230801T000000Z\nSUMMARY:"
+            + summary + "\nDTSTART:20230901T120000Z\nDTEND:20230901T130000Z\nEND:VEVENT\n";
+    }
+
+    @Test
+    void shouldRouteNamedCalendarsAndFetchSharedFeedsOnce() throws Exception {
+        mockWebServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setBody(eventCalendar(request.getPath()))
+                    .addHeader("Content-Type", "text/calendar")
+                    .setBodyDelay(200, TimeUnit.MILLISECONDS);
+            }
+        });
+        String shared = mockWebServer.url("/shared.ics").toString();
+        when(mockConfiguration.getCalendars()).thenReturn(Map.of(
+            "family", List.of(mockWebServer.url("/family.ics").toString(), shared),
+            "team", List.of(shared, mockWebServer.url("/team.ics").toString())));
+        function = new CombineICSFunction(mockConfiguration);
+
+        Map<String, Object> prewarmed = function.handleRequest(Map.of("prewarm", true), context);
+
+        assertThat(prewarmed).containsOnlyKeys("family", "team");
+        assertThat(mockWebServer.getRequestCount()).isEqualTo(3);
+
+        Map<String, Object> response = function.handleRequest(
+            Map.of("pathParameters", Map.of("calendar", "team.ics")), context);
+        assertThat(response.get("statusCode")).isEqualTo(200);
+        assertThat(parseICSResponse((String) response.get("body")))
+            .extracting(component -> component.getUid().get().getValue())
+            .containsExactly("/shared.ics@example.com", "/team.ics@example.com");
+        assertThat(function.handleRequest(
+            Map.of("pathParameters", Map.of("calendar", "other.ics")), context)
+            .get("statusCode")).isEqualTo(404);
+        assertThat(function.handleRequest(null, context).get("statusCode")).isEqualTo(404);
+    }
+
+    @Test
+    void shouldLeaveOutSourceOverItsEventBudget() throws Exception {
+        mockWebServer.setDispatcher(largeFeedDispatcher());
+        when(mockConfiguration.getCalendarUrls()).thenReturn(List.of(
+            mockWebServer.url("/small.ics").toString(),
+            mockWebServer.url("/large.ics").toString()));
+        when(mockConfiguration.isPartialResponseEnabled()).thenReturn(true);
+        when(mockConfiguration.getSourceMaxEvents()).thenReturn(3);
+
+        Map<String, Object> response = function.handleRequest(null, context);
+
+        assertThat(response.get("statusCode")).isEqualTo(200);
+        assertThat((Map<String, String>) response.get("headers"))
+            .containsEntry("X-Masher-Skipped-Sources", "2");
+        assertThat(parseICSResponse((String) response.get("body")))
+            .extracting(component -> component.getUid().get().getValue())
+            .containsExactly("/small.ics@example.com");
+    }
+
+    @Test
+    void shouldSpillLargestSourceOrLeaveItOutOverMergeBudget() throws Exception {
+        mockWebServer.setDispatcher(largeFeedDispatcher());
+        when(mockConfiguration.useSpliceEngine()).thenReturn(true);
+        when(mockConfiguration.getCalendarUrls()).thenReturn(List.of(
+            mockWebServer.url("/small.ics").toString(),
+            mockWebServer.url("/large.ics").toString()));
+        when(mockConfiguration.isPartialResponseEnabled()).thenReturn(true);
+        when(mockConfiguration.getMergeMaxBytes()).thenReturn(400);
+
+        Map<String, Object> leftOut = function.handleRequest(null, context);
+
+        assertThat((Map<String, String>) leftOut.get("headers"))
+            .containsEntry("X-Masher-Skipped-Sources", "2");
+
+        when(mockConfiguration.getSpillThreshold()).thenReturn(200);
+        function = new CombineICSFunction(mockConfiguration);
+        Map<String, Object> spilled = function.handleRequest(null, context);
+
+        assertThat(spilled.get("statusCode")).isEqualTo(200);
+        assertThat((Map<String, String>) spilled.get("headers"))
+            .doesNotContainKey("X-Masher-Skipped-Sources");
+        assertThat(parseICSResponse((String) spilled.get("body")))
+            .extracting(component -> component.getUid().get().getValue())
+            .containsExactlyInAnyOrder("/small.ics@example.com", "a@example.com",
+                "b@example.com", "c@example.com", "d@example.com");
+    }
+
+    private static Dispatcher largeFeedDispatcher() {
+        return new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                String body = request.getPath().equals("/large.ics")
+                    ? "BEGIN:VCALENDAR\nVERSION:2.0\n" + event("a", "A") + event("b", "B")
+                        + event("c", "C") + event("d", "D") + "END:VCALENDAR"
+                    : eventCalendar(request.getPath());
+                return new MockResponse().setBody(body).addHeader("Content-Type", "text/calendar");
+            }
+        };
+    }
+
+    @Test
+    void shouldProjectEachCalendarOnItsOwn() throws Exception {
+        String feed = "BEGIN:VCALENDAR\nVERSION:2.0\nBEGIN:VEVENT\nUID:a@example.com\n"
+            + "DTSTAMP:20230801T000000Z\nSUMMARY:Review\nDESCRIPTION:A long agenda\n"
+            + "ATTACH;ENCODING=BASE64;VALUE=BINARY:QUJD\nDTSTART:20230901T120000Z\n"
+            + "DTEND:20230901T130000Z\nEND:VEVENT\nEND:VCALENDAR";
+        mockWebServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setBody(feed).addHeader("Content-Type", "text/calendar");
+            }
+        });
+        String url = mockWebServer.url("/shared.ics").toString();
+        when(mockConfiguration.getCalendars()).thenReturn(Map.of(
+            "full", List.of(url), "slim", List.of(url)));
+        when(mockConfiguration.getProjection("slim")).thenReturn(
+            Optional.of(new Projection(false, Set.of("ATTACH"), 6)));
+
+        for (boolean splice : new boolean[] {false, true}) {
+            when(mockConfiguration.useSpliceEngine()).thenReturn(splice);
+            function = new CombineICSFunction(mockConfiguration);
+
+            String full = (String) function.handleRequest(
+                Map.of("pathParameters", Map.of("calendar", "full.ics")), context).get("body");
+            String slim = (String) function.handleRequest(
+                Map.of("pathParameters", Map.of("calendar", "slim.ics")), context).get("body");
+
+            assertThat(full).contains("ATTACH", "DESCRIPTION:A long agenda");
+            assertThat(slim).contains("SUMMARY:Review", "DESCRIPTION:A long\u2026")
+                .doesNotContain("ATTACH");
+        }
+        assertThat(mockWebServer.getRequestCount()).isEqualTo(4);
+    }
+
+    private static String eventCalendar(String path) {
+        return "BEGIN:VCALENDAR\nVERSION:2.0\nBEGIN:VEVENT\nUID:" + path
+            + "@example.com\nDTSTAMP:20230801T000000Z\nSUMMARY:Test Event\n"
+            + "DTSTART:20230901T120000Z\nDTEND:20230901T130000Z\nEND:VEVENT\nEND:VCALENDAR";
+    }
+
     private List<CalendarComponent> parseICSResponse(String icsContent) throws Exception {
         InputStream icsInputStream = new ByteArrayInputStream(icsContent.getBytes());
         CalendarBuilder builder = new CalendarBuilder();
@@ -0,0 +1,134 @@
+package com.stephenmatta.ics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.stephenmatta.ics.IcsSplicer.RawEvent;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+import net.fortuna.ical4j.data.CalendarBuilder;
+import net.fortuna.ical4j.model.Component;
+import net.fortuna.ical4j.model.component.CalendarComponent;
+import org.junit.jupiter.api.Test;
+
+class DateWindowTest {
+
+    private static final Clock CLOCK = Clock.fixed(Instant.parse("2024-06-15T12:00:00Z"),
+        ZoneOffset.UTC);
+
+    private static final String ICS_DATA = String.join("\r\n",
+        "BEGIN:VCALENDAR",
+        "VERSION:2.0",
+        "BEGIN:VEVENT",
+        "UID:inside@example.com",
+        "DTSTAMP:20240101T000000Z",
+        "DTSTART:20240610T090000Z",
+        "DTEND:20240610T100000Z",
+        "END:VEVENT",
+        "BEGIN:VEVENT",
+        "UID:before@example.com",
+        "DTSTAMP:20240101T000000Z",
+        "DTSTART:20190610T090000Z",
+        "DTEND:20190610T100000Z",
+        "END:VEVENT",
+        "BEGIN:VEVENT",
+        "UID:overlapping@example.com",
+        "DTSTAMP:20240101T000000Z",
+        "DTSTART;TZID=America/New_York:20240531T200000",
+        "DURATION:PT6H",
+        "END:VEVENT",
+        "BEGIN:VEVENT",
+        "UID:weekly@example.com",
+        "DTSTAMP:20240101T000000Z",
+        "DTSTART;TZID=America/New_York:20200106T090000",
+        "DTEND;TZID=America/New_York:20200106T100000",
+        "RRULE:FREQ=WEEKLY;BYDAY=MO",
+        "END:VEVENT",
+        "BEGIN:VEVENT",
+        "UID:ended@example.com",
+        "DTSTAMP:20240101T000000Z",
+        "DTSTART;VALUE=DATE:20200106",
+        "RRULE:FREQ=MONTHLY;UNTIL=20231231",
+        "END:VEVENT",
+        "BEGIN:VEVENT",
+        "UID:all-day@example.com",
+        "DTSTAMP:20240101T000000Z",
+        "DTSTART;VALUE=DATE:20240630",
+        "END:VEVENT",
+        "BEGIN:VEVENT",
+        "UID:moved@example.com",
+        "DTSTAMP:20240101T000000Z",
+        "RECURRENCE-ID:20240603T090000Z",
+        "DTSTART:20240801T090000Z",
+        "DTEND:20240801T100000Z",
+        "END:VEVENT",
+        "END:VCALENDAR",
+        "");
+
+    @Test
+    void shouldKeepEventsWithAnOccurrenceInTheWindow() throws Exception {
+        DateWindow window = window(Map.of("from", "2024-06-01", "to", "2024-06-30"));
+
+        assertThat(ical4jUids(window)).containsExactly("inside@example.com",
+            "overlapping@example.com", "weekly@example.com", "all-day@example.com",
+            "moved@example.com");
+        assertThat(spliceUids(window)).isEqualTo(ical4jUids(window));
+    }
+
+    @Test
+    void shouldMoveRelativeWindowWithTheClock() throws Exception {
+        DateWindow window = window(Map.of("pastDays", "7", "futureDays", "14"));
+
+        assertThat(spliceUids(window)).containsExactly("inside@example.com",
+            "weekly@example.com");
+        assertThat(ical4jUids(window)).isEqualTo(spliceUids(window));
+    }
+
+    @Test
+    void shouldKeepEverythingWithoutParameters() throws Exception {
+        DateWindow window = window(Map.of());
+
+        assertThat(window.isUnbounded()).isTrue();
+        assertThat(spliceUids(window)).hasSize(7);
+    }
+
+    @Test
+    void shouldRejectMalformedOrContradictoryParameters() {
+        assertThatThrownBy(() -> window(Map.of("from", "last week")))
+            .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> window(Map.of("pastDays", "-1")))
+            .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> window(Map.of("from", "2024-06-01", "pastDays", "7")))
+            .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> window(Map.of("from", "2024-06-30", "to", "2024-06-01")))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static DateWindow window(Map<String, String> parameters) {
+        return DateWindow.from(
+            ApiGatewayRequest.from(Map.of("queryStringParameters", parameters)), CLOCK);
+    }
+
+    private static List<String> ical4jUids(DateWindow window) throws Exception {
+        List<CalendarComponent> events = new CalendarBuilder().build(
+                new ByteArrayInputStream(ICS_DATA.getBytes(StandardCharsets.UTF_8)))
+            .getComponents(Component.VEVENT);
+        return events.stream()
+            .filter(window::includes)
+            .map(event -> event.getUid().get().getValue())
+            .toList();
+    }
+
+    private static List<String> spliceUids(DateWindow window) throws Exception {
+        return IcsSplicer.extractEvents(
+                new ByteArrayInputStream(ICS_DATA.getBytes(StandardCharsets.UTF_8))).stream()
+            .filter(event -> window.includes(event.times()))
+            .map(RawEvent::uid)
+            .toList();
+    }
+}
@@ -0,0 +1,98 @@
+package com.stephenmatta.ics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.stephenmatta.ics.EventDeduplicator.Deduplicated;
+import com.stephenmatta.ics.EventDeduplicator.EventVersion;
+import com.stephenmatta.ics.IcsSplicer.RawEvent;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+class EventDeduplicatorTest {
+
+    @Test
+    void shouldKeepMostRecentVersionOfEachEvent() throws Exception {
+        List<RawEvent> events = extract(
+            event("standup@example.com", null, "1", "20240101T000000Z", "First feed"),
+            event("standup@example.com", null, "2", "20230101T000000Z", "Rescheduled"),
+            event("standup@example.com", null, "0", "20250101T000000Z", "Stale copy"),
+            event("review@example.com", null, null, "20240101T000000Z", "Older review"),
+            event("review@example.com", null, null, "20240301T000000Z", "Newer review"));
+
+        Deduplicated<RawEvent> deduplicated = EventDeduplicator.deduplicate(events,
+            RawEvent::version);
+
+        assertThat(deduplicated.dropped()).isEqualTo(3);
+        assertThat(deduplicated.events()).extracting(EventDeduplicatorTest::summary)
+            .containsExactly("Rescheduled", "Newer review");
+    }
+
+    @Test
+    void shouldKeepDistinctOccurrencesAndEventsWithoutUid() throws Exception {
+        List<RawEvent> events = extract(
+            event("standup@example.com", null, null, null, "Series"),
+            event("standup@example.com", "20240102T090000Z", null, null, "Moved"),
+            event("standup@example.com", "20240103T090000Z", null, null, "Cancelled"),
+            event(null, null, null, null, "Anonymous"),
+            event(null, null, null, null, "Anonymous"));
+
+        Deduplicated<RawEvent> deduplicated = EventDeduplicator.deduplicate(events,
+            RawEvent::version);
+
+        assertThat(deduplicated.dropped()).isZero();
+        assertThat(deduplicated.events()).hasSize(5);
+    }
+
+    @Test
+    void shouldDeduplicateLargeOverlappingFeeds() {
+        List<EventVersion> versions = IntStream.range(0, 200_000)
+            .mapToObj(i -> new EventVersion("event-" + (i % 100_000) + "@example.com", null,
+                i / 100_000, null))
+            .toList();
+
+        Deduplicated<EventVersion> deduplicated = EventDeduplicator.deduplicate(versions,
+            version -> version);
+
+        assertThat(deduplicated.dropped()).isEqualTo(100_000);
+        assertThat(deduplicated.events()).hasSize(100_000)
+            .allMatch(version -> version.sequence() == 1);
+    }
+
+    private static List<RawEvent> extract(String... events) throws Exception {
+        String ics = "BEGIN:VCALENDAR\r\nVERSION:2.0\r\n" + String.join("", events)
+            + "END:VCALENDAR\r\n";
+        return IcsSplicer.extractEvents(
+            new ByteArrayInputStream(ics.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String event(String uid, String recurrenceId, String sequence,
+        String lastModified, String summary) {
+        StringBuilder event = new StringBuilder("BEGIN:VEVENT\r\n");
+        if (uid != null) {
+            event.append("UID:").append(uid).append("\r\n");
+        }
+        if (recurrenceId != null) {
+            event.append("RECURRENCE-ID:").append(recurrenceId).append("\r\n");
+        }
+        if (sequence != null) {
+            event.append("SEQUENCE:").append(sequence).append("\r\n");
+        }
+        if (lastModified != null) {
+            event.append("LAST-MODIFIED:").append(lastModified).append("\r\n");
+        }
+        return event.append("SUMMARY:").append(summary).append("\r\n")
+            .append("DTSTAMP:20240101T000000Z\r\nDTSTART:20240102T090000Z\r\nEND:VEVENT\r\n")
+            .toString();
+    }
+
+    private static String summary(RawEvent event) {
+        return event.text().lines()
+            .filter(line -> line.startsWith("SUMMARY:"))
+            .findFirst()
+            .map(line -> line.substring("SUMMARY:".length()))
+            .orElseThrow();
+    }
+}
@@ -0,0 +1,139 @@
+package com.stephenmatta.ics;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.stephenmatta.ics.IcsSplicer.RawCalendar;
+import com.stephenmatta.ics.IcsSplicer.RawEvent;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.util.List;
+import net.fortuna.ical4j.data.CalendarBuilder;
+import net.fortuna.ical4j.model.Calendar;
+import net.fortuna.ical4j.model.Component;
+import net.fortuna.ical4j.model.Property;
+import net.fortuna.ical4j.model.component.VEvent;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class IcsSplicerTest {
+
+    private static final String ICS_DATA = String.join("\r\n",
+        "BEGIN:VCALENDAR",
+        "VERSION:2.0",
+        "PRODID:-//Example//Example//EN",
+        "BEGIN:VTIMEZONE",
+        "TZID:Europe/Berlin",
+        "BEGIN:STANDARD",
+        "DTSTART:19701025T030000",
+        "TZOFFSETFROM:+0200",
+        "TZOFFSETTO:+0100",
+        "END:STANDARD",
+        "END:VTIMEZONE",
+        "BEGIN:VEVENT",
+        "UID:folded-",
+        " uid@example.com",
+        "DTSTAMP:20230101T000000Z",
+        "SUMMARY:A summary that is long enough to be folded over more than one line of",
+        "  the calendar file",
+        "DTSTART;TZID=Europe/Berlin:20230901T120000",
+        "DTEND;TZID=Europe/Berlin:20230901T130000",
+        "RRULE:FREQ=WEEKLY;COUNT=10",
+        "BEGIN:VALARM",
+        "ACTION:DISPLAY",
+        "DESCRIPTION:Reminder",
+        "TRIGGER:-PT15M",
+        "DTSTAMP:20230101T000000Z",
+        "END:VALARM",
+        "END:VEVENT",
+        "BEGIN:VEVENT",
+        "UID;X-SOURCE=\"a:b\":no-dtstamp@example.com",
+        "SUMMARY:Missing DTSTAMP",
+        "DTSTART:20230902T120000Z",
+        "END:VEVENT",
+        "END:VCALENDAR",
+        "");
+
+    @Test
+    void shouldUnfoldUidsOfExtractedEvents() throws Exception {
+        List<RawEvent> events = IcsSplicer.extractEvents(
+            new ByteArrayInputStream(ICS_DATA.getBytes(UTF_8)));
+
+        assertThat(events).extracting(RawEvent::uid)
+            .containsExactly("folded-uid@example.com", "no-dtstamp@example.com");
+    }
+
+    @Test
+    void shouldExtractTimezonesAndTheTzidsEventsReferTo() throws Exception {
+        RawCalendar calendar = IcsSplicer.extract(
+            new ByteArrayInputStream(ICS_DATA.getBytes(UTF_8)));
+
+        assertThat(calendar.timezones()).containsOnlyKeys("Europe/Berlin");
+        assertThat(calendar.timezones().get("Europe/Berlin"))
+            .startsWith("BEGIN:VTIMEZONE\r\n").endsWith("END:VTIMEZONE\r\n");
+        assertThat(calendar.events()).extracting(RawEvent::tzIds)
+            .containsExactly(List.of("Europe/Berlin"), List.of());
+    }
+
+    @Test
+    void shouldAddDtStampOnlyToEventsWithoutOne() throws Exception {
+        List<RawEvent> events = IcsSplicer.extractEvents(
+            new ByteArrayInputStream(ICS_DATA.getBytes(UTF_8)));
+
+        assertThat(events.get(0).text()).containsOnlyOnce("\r\nDTSTAMP:20230101T000000Z\r\nSUMMARY");
+        assertThat(events.get(1).text()).containsPattern("\r\nDTSTAMP:\\d{8}T\\d{6}Z\r\nEND:VEVENT");
+    }
+
+    @Test
+    void shouldProduceSameEventsAsIcal4jEngine() throws Exception {
+        List<RawEvent> events = IcsSplicer.extractEvents(
+            new ByteArrayInputStream(ICS_DATA.getBytes(UTF_8)));
+        StringWriter writer = new StringWriter();
+        IcsSplicer.write(writer, "-//Test//Test//EN", List.of(), events);
+
+        List<VEvent> expected = parseEvents(ICS_DATA);
+        List<VEvent> actual = parseEvents(writer.toString());
+
+        assertThat(actual).hasSameSizeAs(expected);
+        for (int i = 0; i < expected.size(); i++) {
+            VEvent expectedEvent = expected.get(i);
+            VEvent actualEvent = actual.get(i);
+            assertThat(actualEvent.getProperty(Property.DTSTAMP)).isPresent();
+            if (expectedEvent.getProperty(Property.DTSTAMP).isEmpty()) {
+                expectedEvent.add(actualEvent.getProperty(Property.DTSTAMP).get());
+            }
+            assertThat(actualEvent).isEqualTo(expectedEvent);
+        }
+    }
+
+    @Test
+    void shouldWriteSpilledEventsBackUnchanged(@TempDir Path spillDirectory) throws Exception {
+        // Every event carries a DTSTAMP, so that none is stamped differently by each extraction
+        byte[] data = ICS_DATA.replace("SUMMARY:Missing DTSTAMP",
+            "DTSTAMP:20230101T000000Z").getBytes(UTF_8);
+        RawCalendar inMemory = IcsSplicer.extract(new ByteArrayInputStream(data));
+        RawCalendar spilled = IcsSplicer.extract(new ByteArrayInputStream(data),
+            Projection.NONE, 1, spillDirectory);
+
+        assertThat(spilled.spilledEvents()).isEqualTo(2);
+        assertThat(spilled.inMemorySize())
+            .isEqualTo(spilled.timezones().get("Europe/Berlin").length());
+        assertThat(spillDirectory).isEmptyDirectory();
+        assertThat(write(spilled)).isEqualTo(write(inMemory));
+    }
+
+    private static String write(RawCalendar calendar) throws IOException {
+        StringWriter writer = new StringWriter();
+        IcsSplicer.write(writer, "-//Test//Test//EN", calendar.timezones().values(),
+            calendar.events());
+        return writer.toString();
+    }
+
+    private List<VEvent> parseEvents(String icsData) throws Exception {
+        Calendar calendar = new CalendarBuilder().build(new StringReader(icsData));
+        return calendar.getComponents(Component.VEVENT);
+    }
+}
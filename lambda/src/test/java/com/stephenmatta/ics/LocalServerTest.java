@@ -0,0 +1,79 @@
+package com.stephenmatta.ics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Map;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class LocalServerTest {
+
+    private static final String ICS_DATA = "BEGIN:VCALENDAR\nVERSION:2.0\nBEGIN:VEVENT\nUID:event1@example.com\nDTSTAMP:20230801T000000Z\nDTSTART:20230901T120000Z\nDTEND:20230901T130000Z\nEND:VEVENT\nEND:VCALENDAR";
+
+    private MockWebServer upstream;
+    private LocalServer server;
+    private HttpClient httpClient;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        upstream = new MockWebServer();
+        upstream.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setBody(ICS_DATA)
+                    .addHeader("Content-Type", "text/calendar");
+            }
+        });
+        upstream.start();
+        server = LocalServer.start(new Configuration(Map.of(
+            "ICS_URLS", upstream.url("/event1.ics").toString(),
+            "ICS_METRICS", "false")), 0);
+        httpClient = HttpClient.newHttpClient();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        httpClient.close();
+        server.stop();
+        upstream.shutdown();
+    }
+
+    @Test
+    void shouldServeCombinedCalendarOverHttp() throws Exception {
+        HttpResponse<String> response = get("/calendar.ics", Map.of());
+
+        assertThat(response.statusCode()).isEqualTo(200);
+        assertThat(response.headers().firstValue("Content-Type")).hasValue("text/calendar");
+        assertThat(response.body()).contains("UID:event1@example.com");
+
+        String etag = response.headers().firstValue("ETag").orElseThrow();
+        HttpResponse<String> revalidated = get("/calendar.ics", Map.of("If-None-Match", etag));
+        assertThat(revalidated.statusCode()).isEqualTo(304);
+        assertThat(revalidated.body()).isEmpty();
+    }
+
+    @Test
+    void shouldPassQueryParametersToFunction() throws Exception {
+        assertThat(get("/calendar.ics?from=2023-08-01&to=2023-09-30", Map.of()).body())
+            .contains("UID:event1@example.com");
+        assertThat(get("/calendar.ics?from=2024-01-01", Map.of()).body())
+            .doesNotContain("UID:event1@example.com");
+        assertThat(get("/calendar.ics?from=yesterday", Map.of()).statusCode()).isEqualTo(400);
+    }
+
+    private HttpResponse<String> get(String path, Map<String, String> headers) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(
+            URI.create("http://localhost:" + server.port() + path));
+        headers.forEach(request::header);
+        return httpClient.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,134 @@
+package com.stephenmatta.ics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import net.fortuna.ical4j.data.CalendarBuilder;
+import net.fortuna.ical4j.model.Calendar;
+import net.fortuna.ical4j.model.Component;
+import net.fortuna.ical4j.model.component.CalendarComponent;
+import net.fortuna.ical4j.model.property.DtStart;
+import org.junit.jupiter.api.Test;
+
+class ParallelCalendarParserTest {
+
+    private static final String VTIMEZONE = String.join("\n",
+        "BEGIN:VTIMEZONE",
+        "TZID:America/New_York",
+        "BEGIN:STANDARD",
+        "DTSTART:19701101T020000",
+        "RRULE:FREQ=YEARLY;BYMONTH=11;BYDAY=1SU",
+        "TZOFFSETFROM:-0400",
+        "TZOFFSETTO:-0500",
+        "END:STANDARD",
+        "BEGIN:DAYLIGHT",
+        "DTSTART:19700308T020000",
+        "RRULE:FREQ=YEARLY;BYMONTH=3;BYDAY=2SU",
+        "TZOFFSETFROM:-0500",
+        "TZOFFSETTO:-0400",
+        "END:DAYLIGHT",
+        "END:VTIMEZONE");
+
+    private final AtomicInteger parses = new AtomicInteger();
+    private final Function<InputStream, Calendar> parser = inputStream -> {
+        parses.incrementAndGet();
+        try {
+            return new CalendarBuilder().build(inputStream);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    };
+
+    @Test
+    void shouldParseChunksInFeedOrderWithSharedTimezones() {
+        byte[] feed = feed(101);
+        ParallelCalendarParser parallelParser = new ParallelCalendarParser(1, 4,
+            Executors.newFixedThreadPool(3));
+
+        Calendar calendar = parallelParser.parse(feed, parser);
+
+        assertThat(parses).hasValue(4);
+        List<CalendarComponent> components = calendar.getComponents();
+        assertThat(components).extracting(Component::getName).first().isEqualTo("VTIMEZONE");
+        assertThat(calendar.getComponents(Component.VTIMEZONE)).hasSize(1);
+        List<CalendarComponent> events = calendar.getComponents(Component.VEVENT);
+        assertThat(events).extracting(event -> event.getUid().get().getValue())
+            .isEqualTo(uids(parseSequentially(feed)));
+        events.forEach(event -> assertThat(
+            ((ZonedDateTime) event.<DtStart<?>>getRequiredProperty("DTSTART").getDate())
+                .getOffset()).isEqualTo(ZoneOffset.ofHours(-5)));
+    }
+
+    @Test
+    void shouldParseSmallFeedsOnOneThread() {
+        byte[] feed = feed(10);
+        ParallelCalendarParser parallelParser = new ParallelCalendarParser(feed.length + 1, 4,
+            Runnable::run);
+
+        Calendar calendar = parallelParser.parse(feed, parser);
+
+        assertThat(parses).hasValue(1);
+        assertThat(calendar.getComponents(Component.VEVENT)).hasSize(10);
+    }
+
+    @Test
+    void shouldParseFeedWithTimezoneAfterItsEventsOnOneThread() {
+        String events = new String(feed(20), StandardCharsets.UTF_8)
+            .replace(VTIMEZONE + "\n", "");
+        byte[] feed = events.replace("END:VCALENDAR", VTIMEZONE + "\nEND:VCALENDAR")
+            .getBytes(StandardCharsets.UTF_8);
+        ParallelCalendarParser parallelParser = new ParallelCalendarParser(1, 4, Runnable::run);
+
+        Calendar calendar = parallelParser.parse(feed, parser);
+
+        assertThat(parses).hasValue(1);
+        assertThat(calendar.getComponents(Component.VEVENT)).hasSize(20);
+    }
+
+    @Test
+    void shouldOnlySplitAtLinesThatBeginAnEvent() {
+        byte[] feed = ("BEGIN:VCALENDAR\r\nBEGIN:VEVENT\r\nDESCRIPTION:folded\r\n"
+            + " BEGIN:VEVENT\r\nEND:VEVENT\r\nBEGIN:VEVENTS\r\nBEGIN:VEVENT\r\nEND:VEVENT\r\n"
+            + "END:VCALENDAR\r\n").getBytes(StandardCharsets.US_ASCII);
+
+        assertThat(ParallelCalendarParser.findEventStarts(feed)).containsExactly(17, 93);
+    }
+
+    private static byte[] feed(int eventCount) {
+        StringBuilder feed = new StringBuilder("BEGIN:VCALENDAR\nVERSION:2.0\n")
+            .append("PRODID:-//Example//Test//EN\n")
+            .append(VTIMEZONE).append('\n');
+        for (int i = 0; i < eventCount; i++) {
+            feed.append("BEGIN:VEVENT\n")
+                .append("UID:event-").append(i).append("@example.com\n")
+                .append("DTSTAMP:20240101T000000Z\n")
+                .append("DTSTART;TZID=America/New_York:20240102T0900").append(i % 60 / 10)
+                .append(i % 10).append('\n')
+                .append("SUMMARY:Event ").append(i).append('\n')
+                .append("END:VEVENT\n");
+        }
+        return feed.append("END:VCALENDAR\n").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static Calendar parseSequentially(byte[] feed) {
+        try {
+            return new CalendarBuilder().build(new ByteArrayInputStream(feed));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static List<String> uids(Calendar calendar) {
+        return calendar.<CalendarComponent>getComponents(Component.VEVENT).stream()
+            .map(event -> event.getUid().get().getValue())
+            .toList();
+    }
+}
@@ -0,0 +1,77 @@
+package com.stephenmatta.ics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class ProjectionTest {
+
+    private static final String ICS_DATA = String.join("\r\n",
+        "BEGIN:VCALENDAR",
+        "VERSION:2.0",
+        "X-WR-CALNAME:Team",
+        "BEGIN:VEVENT",
+        "UID:standup@example.com",
+        "DTSTAMP:20230101T000000Z",
+        "DTSTART:20230901T090000Z",
+        "SUMMARY:Standup",
+        "ATTACH;ENCODING=BASE64;VALUE=BINARY:QUJD",
+        " REVG",
+        "X-ALT-DESC;FMTTYPE=text/html:<p>Daily</p>",
+        "DESCRIPTION:Daily\\nsync",
+        "BEGIN:VALARM",
+        "ACTION:DISPLAY",
+        "TRIGGER:-PT5M",
+        "X-NOTE:kept with its alarm",
+        "END:VALARM",
+        "END:VEVENT",
+        "END:VCALENDAR",
+        "");
+
+    @Test
+    void shouldDropDeniedPropertiesAndSubcomponents() throws Exception {
+        String projected = project(new Projection(false, Set.of("ATTACH", "X-*", "VALARM"), 0),
+            ICS_DATA);
+
+        assertThat(projected)
+            .contains("X-WR-CALNAME:Team", "SUMMARY:Standup", "DESCRIPTION:Daily\\nsync",
+                "END:VEVENT\r\nEND:VCALENDAR")
+            .doesNotContain("ATTACH", "REVG", "X-ALT-DESC", "VALARM", "X-NOTE");
+    }
+
+    @Test
+    void shouldKeepOnlyAllowedAndRequiredProperties() throws Exception {
+        String projected = project(new Projection(true, Set.of("SUMMARY", "VALARM"), 0),
+            ICS_DATA);
+
+        assertThat(projected)
+            .contains("UID:standup@example.com", "DTSTAMP:", "DTSTART:", "SUMMARY:Standup",
+                "BEGIN:VALARM\r\nACTION:DISPLAY\r\nTRIGGER:-PT5M\r\nX-NOTE:kept with its alarm")
+            .doesNotContain("ATTACH", "X-ALT-DESC", "DESCRIPTION");
+    }
+
+    @Test
+    void shouldShortenLongDescriptionsWithoutSplittingEscapes() throws Exception {
+        String escaped = project(new Projection(false, Set.of(), 6), ICS_DATA);
+        String folded = project(new Projection(false, Set.of(), 150),
+            ICS_DATA.replace("Daily\\nsync", "x".repeat(100) + "\r\n " + "y".repeat(100)));
+
+        assertThat(escaped).contains("DESCRIPTION:Daily\u2026\r\n");
+        assertThat(folded.split("\r\n")).allSatisfy(line -> assertThat(line).hasSizeLessThan(76));
+        assertThat(folded.replace("\r\n ", ""))
+            .contains("DESCRIPTION:" + "x".repeat(100) + "y".repeat(50) + "\u2026\r\n");
+    }
+
+    private static String project(Projection projection, String icsData) throws IOException {
+        StringWriter writer = new StringWriter();
+        try (Reader reader = projection.filter(new StringReader(icsData))) {
+            reader.transferTo(writer);
+        }
+        return writer.toString();
+    }
+}
@@ -0,0 +1,85 @@
+package com.stephenmatta.ics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ResponseCacheTest {
+
+    private MutableClock clock;
+    private ResponseCache<String> cache;
+    private AtomicInteger loads;
+
+    @BeforeEach
+    void setUp() {
+        clock = new MutableClock(Instant.parse("2024-01-01T00:00:00Z"));
+        cache = new ResponseCache<>(Duration.ofMinutes(5), clock);
+        loads = new AtomicInteger();
+    }
+
+    @Test
+    void shouldServeFreshValueWithoutReloading() {
+        assertThat(cache.get(() -> load("v1"))).isEqualTo("v1");
+        clock.advance(Duration.ofMinutes(4));
+
+        assertThat(cache.get(() -> load("v2"))).isEqualTo("v1");
+        assertThat(loads).hasValue(1);
+    }
+
+    @Test
+    void shouldServeStaleValueWhileReloading() {
+        cache.get(() -> load("v1"));
+        clock.advance(Duration.ofMinutes(6));
+        CompletableFuture<String> reload = new CompletableFuture<>();
+
+        assertThat(cache.get(() -> reload)).isEqualTo("v1");
+        assertThat(cache.get(() -> load("unused"))).isEqualTo("v1");
+
+        reload.complete("v2");
+        assertThat(cache.get(() -> load("unused"))).isEqualTo("v2");
+        assertThat(loads).hasValue(1);
+    }
+
+    @Test
+    void shouldKeepStaleValueWhenReloadFails() {
+        cache.get(() -> load("v1"));
+        clock.advance(Duration.ofMinutes(6));
+
+        assertThat(cache.get(
+            () -> CompletableFuture.failedFuture(new IllegalStateException("down")))).isEqualTo(
+            "v1");
+        assertThat(cache.get(() -> load("v2"))).isEqualTo("v1");
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    void shouldCoalesceConcurrentMisses() throws Exception {
+        CompletableFuture<String> load = new CompletableFuture<>();
+        CompletableFuture<String> first = CompletableFuture.supplyAsync(
+            () -> cache.get(() -> {
+                loads.incrementAndGet();
+                return load;
+            }));
+        while (loads.get() == 0) {
+            Thread.onSpinWait();
+        }
+        CompletableFuture<String> second = CompletableFuture.supplyAsync(
+            () -> cache.get(() -> load("unused")));
+
+        load.complete("v1");
+
+        assertThat(first.get()).isEqualTo("v1");
+        assertThat(second.get()).isEqualTo("v1");
+        assertThat(loads).hasValue(1);
+    }
+
+    private CompletableFuture<String> load(String value) {
+        loads.incrementAndGet();
+        return CompletableFuture.completedFuture(value);
+    }
+}
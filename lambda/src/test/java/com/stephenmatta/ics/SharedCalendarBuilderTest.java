@@ -0,0 +1,62 @@
+package com.stephenmatta.ics;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.List;
+import net.fortuna.ical4j.model.Calendar;
+import net.fortuna.ical4j.model.Component;
+import net.fortuna.ical4j.model.property.DtStart;
+import org.junit.jupiter.api.Test;
+
+class SharedCalendarBuilderTest {
+
+    private static final String VTIMEZONE = String.join("\n",
+        "BEGIN:VTIMEZONE",
+        "TZID:Custom/Office",
+        "BEGIN:STANDARD",
+        "DTSTART:19700101T000000",
+        "TZOFFSETFROM:+0330",
+        "TZOFFSETTO:+0330",
+        "END:STANDARD",
+        "END:VTIMEZONE", "");
+
+    private final SharedTimeZoneRegistry registry = new SharedTimeZoneRegistry();
+    private final SharedCalendarBuilder builder = new SharedCalendarBuilder(registry);
+
+    @Test
+    void shouldResolveFeedTimezonesAcrossRepeatedParses() throws Exception {
+        ZonedDateTime first = start(builder.build(feed(VTIMEZONE, "Custom/Office")));
+        ZonedDateTime second = start(builder.build(feed(VTIMEZONE, "Custom/Office")));
+
+        assertThat(first.getOffset()).isEqualTo(ZoneOffset.ofHoursMinutes(3, 30));
+        assertThat(second.getZone()).isEqualTo(first.getZone());
+        assertThat(registry.getZoneRules()).hasSize(1);
+    }
+
+    @Test
+    void shouldResolveTimezonesFromTheTzDatabase() throws Exception {
+        registry.preload(List.of("Europe/Berlin", "Nowhere/Land"));
+
+        ZonedDateTime start = start(builder.build(feed("", "Europe/Berlin")));
+
+        assertThat(start.getOffset()).isEqualTo(ZoneOffset.ofHours(1));
+        assertThat(registry.getVTimeZone("Europe/Berlin")).isPresent();
+        assertThat(registry.getVTimeZone("Nowhere/Land")).isEmpty();
+    }
+
+    private static ByteArrayInputStream feed(String timezone, String tzId) {
+        return new ByteArrayInputStream(("BEGIN:VCALENDAR\nVERSION:2.0\n" + timezone
+            + "BEGIN:VEVENT\nUID:event@example.com\nDTSTAMP:20240101T000000Z\n"
+            + "DTSTART;TZID=" + tzId + ":20240102T090000\nEND:VEVENT\nEND:VCALENDAR\n")
+            .getBytes(UTF_8));
+    }
+
+    private static ZonedDateTime start(Calendar calendar) {
+        return (ZonedDateTime) calendar.getComponents(Component.VEVENT).get(0)
+            .<DtStart<?>>getRequiredProperty("DTSTART").getDate();
+    }
+}
@@ -0,0 +1,156 @@
+package com.stephenmatta.ics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.GZIPInputStream;
+import net.fortuna.ical4j.data.CalendarBuilder;
+import net.fortuna.ical4j.model.Calendar;
+import net.fortuna.ical4j.model.Component;
+import net.fortuna.ical4j.model.component.CalendarComponent;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+class StreamingCombineICSFunctionTest {
+
+    private static final String ICS_DATA = "BEGIN:VCALENDAR\nVERSION:2.0\nBEGIN:VEVENT\nUID:event1@example.com\nSUMMARY:A \"quoted\" \\\\ summary\nDTSTART:20230901T120000Z\nDTEND:20230901T130000Z\nEND:VEVENT\nEND:VCALENDAR";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private Configuration mockConfiguration;
+    private Context context;
+    private MockWebServer mockWebServer;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        mockWebServer = new MockWebServer();
+        mockWebServer.start();
+
+        mockConfiguration = Mockito.mock(Configuration.class);
+        context = Mockito.mock(Context.class);
+        when(mockConfiguration.getCalendarUrls()).thenReturn(
+            List.of(mockWebServer.url("/event1.ics").toString()));
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        mockWebServer.shutdown();
+    }
+
+    @Test
+    void shouldWriteCalendarIntoJsonBody() throws Exception {
+        mockWebServer.enqueue(
+            new MockResponse().setBody(ICS_DATA).addHeader("Content-Type", "text/calendar"));
+
+        Map<String, Object> response = invoke("{}");
+
+        assertThat(response.get("statusCode")).isEqualTo(200);
+        assertThat(response.get("isBase64Encoded")).isEqualTo(false);
+        assertThat((Map<String, String>) response.get("headers"))
+            .containsEntry("Content-Type", "text/calendar")
+            .containsKeys("ETag", "Last-Modified");
+
+        List<CalendarComponent> events = parseEvents((String) response.get("body"));
+        assertThat(events).hasSize(1);
+        assertThat(events.get(0).getProperty("SUMMARY").get().getValue())
+            .isEqualTo("A \"quoted\" \\ summary");
+    }
+
+    @Test
+    void shouldWriteGzippedCalendarWhenClientAcceptsIt() throws Exception {
+        mockWebServer.enqueue(
+            new MockResponse().setBody(ICS_DATA).addHeader("Content-Type", "text/calendar"));
+
+        Map<String, Object> response = invoke(
+            "{\"headers\":{\"accept-encoding\":\"gzip, deflate\"}}");
+
+        assertThat(response.get("isBase64Encoded")).isEqualTo(true);
+        assertThat((Map<String, String>) response.get("headers")).containsEntry(
+            "Content-Encoding", "gzip");
+
+        byte[] compressed = Base64.getDecoder().decode((String) response.get("body"));
+        try (InputStream body = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            List<CalendarComponent> events = parseEvents(
+                new String(body.readAllBytes(), StandardCharsets.UTF_8));
+            assertThat(events).extracting(component -> component.getUid().get().getValue())
+                .containsExactly("event1@example.com");
+        }
+    }
+
+    @Test
+    void shouldFilterWithFunctionClockAndEmitRequestMetrics() throws Exception {
+        mockWebServer.enqueue(
+            new MockResponse().setBody(ICS_DATA).addHeader("Content-Type", "text/calendar"));
+        when(mockConfiguration.isMetricsEnabled()).thenReturn(true);
+        when(mockConfiguration.getMetricsNamespace()).thenReturn("Masher");
+        List<String> lines = new CopyOnWriteArrayList<>();
+        StreamingCombineICSFunction function = new StreamingCombineICSFunction(mockConfiguration,
+            Clock.fixed(Instant.parse("2023-09-01T00:00:00Z"), ZoneOffset.UTC), lines::add);
+
+        Map<String, Object> response = invoke(function,
+            "{\"queryStringParameters\":{\"pastDays\":\"1\",\"futureDays\":\"1\"}}");
+
+        assertThat(parseEvents((String) response.get("body")))
+            .extracting(component -> component.getUid().get().getValue())
+            .containsExactly("event1@example.com");
+        List<JsonNode> records = new ArrayList<>();
+        for (String line : lines) {
+            records.add(objectMapper.readTree(line));
+        }
+        assertThat(records).extracting(record -> record.path("Operation").asText(
+                record.path("Source").asText()))
+            .containsExactly("Build", "1", "Request");
+        JsonNode request = records.get(2);
+        assertThat(request.get("ColdStart").asInt()).isEqualTo(1);
+        assertThat(request.get("StatusCode").asText()).isEqualTo("200");
+        assertThat(request.get("ResponseBytes").asInt())
+            .isEqualTo(((String) response.get("body")).length());
+        assertThat(request.has("Latency")).isTrue();
+    }
+
+    @Test
+    void shouldReturnErrorResponseOnServerError() throws Exception {
+        mockWebServer.enqueue(new MockResponse().setResponseCode(500));
+
+        Map<String, Object> response = invoke("");
+
+        assertThat(response.get("statusCode")).isEqualTo(500);
+        assertThat((String) response.get("body")).contains("Internal Server Error");
+    }
+
+    private Map<String, Object> invoke(String event) throws Exception {
+        return invoke(new StreamingCombineICSFunction(mockConfiguration), event);
+    }
+
+    private Map<String, Object> invoke(StreamingCombineICSFunction function, String event)
+        throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        function.handleRequest(
+            new ByteArrayInputStream(event.getBytes(StandardCharsets.UTF_8)), output, context);
+        return objectMapper.readValue(output.toByteArray(), Map.class);
+    }
+
+    private List<CalendarComponent> parseEvents(String icsContent) throws Exception {
+        Calendar calendar = new CalendarBuilder().build(
+            new ByteArrayInputStream(icsContent.getBytes(StandardCharsets.UTF_8)));
+        return calendar.getComponents(Component.VEVENT);
+    }
+}
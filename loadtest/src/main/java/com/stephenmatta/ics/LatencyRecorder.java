@@ -0,0 +1,53 @@
+package com.stephenmatta.ics;
+
+import java.util.Arrays;
+
+/**
+ * Collects the latencies of one client's requests, in nanoseconds. Each client owns its recorder,
+ * so recording takes no locks; the recorders are merged once the run is over.
+ */
+final class LatencyRecorder {
+
+    private long[] latencies = new long[1024];
+    private int count;
+
+    void record(long nanos) {
+        if (count == latencies.length) {
+            latencies = Arrays.copyOf(latencies, count * 2);
+        }
+        latencies[count++] = nanos;
+    }
+
+    int count() {
+        return count;
+    }
+
+    /**
+     * Returns every recorded latency, sorted, so that percentiles can be read off directly.
+     */
+    static long[] merge(Iterable<LatencyRecorder> recorders) {
+        int total = 0;
+        for (LatencyRecorder recorder : recorders) {
+            total += recorder.count;
+        }
+        long[] merged = new long[total];
+        int offset = 0;
+        for (LatencyRecorder recorder : recorders) {
+            System.arraycopy(recorder.latencies, 0, merged, offset, recorder.count);
+            offset += recorder.count;
+        }
+        Arrays.sort(merged);
+        return merged;
+    }
+
+    /**
+     * Returns the nearest-rank percentile of sorted latencies, in milliseconds.
+     */
+    static double percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)] / 1_000_000.0;
+    }
+}
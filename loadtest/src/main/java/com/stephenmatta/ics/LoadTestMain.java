@@ -0,0 +1,203 @@
+package com.stephenmatta.ics;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Replays calendar clients polling the function, served by {@link LocalServer}, while
+ * {@link SimulatedUpstream} stands in for the upstream feeds, then reports throughput and latency
+ * percentiles. Options are given as {@code --name=value}; see README.md for the list. Options of
+ * the form {@code --env.NAME=value} are passed to the function as environment variables.
+ */
+public class LoadTestMain {
+
+    private static final Map<String, String> DEFAULTS = Map.ofEntries(
+        Map.entry("sources", "4"),
+        Map.entry("events", "500"),
+        Map.entry("upstreamLatencyMs", "50"),
+        Map.entry("jitterMs", "0"),
+        Map.entry("failureRate", "0"),
+        Map.entry("changeSeconds", "0"),
+        Map.entry("clients", "50"),
+        Map.entry("pollMs", "1000"),
+        Map.entry("durationSeconds", "30"),
+        Map.entry("warmupSeconds", "5"),
+        Map.entry("conditional", "0.8"),
+        Map.entry("gzip", "0.5"),
+        Map.entry("windowed", "0"),
+        Map.entry("target", ""));
+
+    private final Map<String, String> options;
+    private final Map<Integer, LongAdder> statusCounts = new ConcurrentHashMap<>();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+
+    private LoadTestMain(Map<String, String> options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>(DEFAULTS);
+        Map<String, String> env = new HashMap<>(System.getenv());
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 0) {
+                throw new IllegalArgumentException("Expected --name=value but got " + arg);
+            }
+            String name = arg.substring(2, equals);
+            String value = arg.substring(equals + 1);
+            if (name.startsWith("env.")) {
+                env.put(name.substring(4), value);
+            } else if (DEFAULTS.containsKey(name)) {
+                options.put(name, value);
+            } else {
+                throw new IllegalArgumentException("Unknown option --" + name);
+            }
+        }
+        new LoadTestMain(options).run(env);
+    }
+
+    private void run(Map<String, String> env) throws Exception {
+        String target = options.get("target");
+        SimulatedUpstream upstream = null;
+        LocalServer server = null;
+        if (target.isEmpty()) {
+            upstream = new SimulatedUpstream(intOption("sources"), intOption("events"),
+                longOption("upstreamLatencyMs"), longOption("jitterMs"),
+                doubleOption("failureRate"), longOption("changeSeconds"));
+            env.put("ICS_URLS", upstream.urls());
+            env.putIfAbsent("ICS_METRICS", "false");
+            server = LocalServer.start(new Configuration(env), 0);
+            target = "http://localhost:" + server.port() + "/calendar.ics";
+        }
+        try (HttpClient httpClient = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+            ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            long warmupEnd = System.nanoTime() + Duration.ofSeconds(longOption("warmupSeconds"))
+                .toNanos();
+            long end = warmupEnd + Duration.ofSeconds(longOption("durationSeconds")).toNanos();
+            List<LatencyRecorder> recorders = new ArrayList<>();
+            for (int i = 0; i < intOption("clients"); i++) {
+                LatencyRecorder recorder = new LatencyRecorder();
+                recorders.add(recorder);
+                URI uri = URI.create(target);
+                clients.execute(() -> poll(httpClient, uri, recorder, warmupEnd, end));
+            }
+            clients.shutdown();
+            clients.close();
+            report(LatencyRecorder.merge(recorders), upstream);
+        } finally {
+            if (server != null) {
+                server.stop();
+            }
+            if (upstream != null) {
+                upstream.stop();
+            }
+        }
+    }
+
+    /**
+     * Polls like one calendar client until {@code end}, waiting an exponentially distributed time
+     * between requests and, when it has one, usually revalidating the ETag it last saw.
+     */
+    private void poll(HttpClient httpClient, URI target, LatencyRecorder recorder, long warmupEnd,
+        long end) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long pollMillis = longOption("pollMs");
+        boolean gzip = random.nextDouble() < doubleOption("gzip");
+        URI uri = random.nextDouble() < doubleOption("windowed")
+            ? URI.create(target + (target.getQuery() == null ? "?" : "&")
+                + "pastDays=30&futureDays=365")
+            : target;
+        String etag = null;
+        while (System.nanoTime() < end) {
+            HttpRequest.Builder request = HttpRequest.newBuilder(uri)
+                .timeout(Duration.ofSeconds(30));
+            if (gzip) {
+                request.header("Accept-Encoding", "gzip");
+            }
+            if (etag != null && random.nextDouble() < doubleOption("conditional")) {
+                request.header("If-None-Match", etag);
+            }
+            long start = System.nanoTime();
+            try {
+                HttpResponse<byte[]> response = httpClient.send(request.build(),
+                    HttpResponse.BodyHandlers.ofByteArray());
+                long finish = System.nanoTime();
+                if (start >= warmupEnd && finish <= end) {
+                    recorder.record(finish - start);
+                    statusCounts.computeIfAbsent(response.statusCode(), ignored -> new LongAdder())
+                        .increment();
+                    bytes.add(response.body().length);
+                }
+                etag = response.headers().firstValue("ETag").orElse(etag);
+            } catch (IOException e) {
+                if (start >= warmupEnd) {
+                    errors.increment();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (pollMillis > 0) {
+                long thinkNanos = (long) (-Math.log(1 - random.nextDouble()) * pollMillis
+                    * 1_000_000);
+                long remaining = end - System.nanoTime();
+                try {
+                    Thread.sleep(Duration.ofNanos(Math.min(thinkNanos, Math.max(0, remaining))));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void report(long[] latencies, SimulatedUpstream upstream) {
+        double seconds = longOption("durationSeconds");
+        Map<Integer, Long> statuses = new TreeMap<>();
+        statusCounts.forEach((status, count) -> statuses.put(status, count.sum()));
+        System.out.printf("Requests:    %d in %.0f s (%.1f req/s), %d errors%n",
+            latencies.length, seconds, latencies.length / seconds, errors.sum());
+        System.out.printf("Statuses:    %s%n", statuses);
+        System.out.printf("Bytes:       %d (%.1f KiB/s)%n", bytes.sum(),
+            bytes.sum() / seconds / 1024);
+        System.out.printf("Latency ms:  p50=%.2f p90=%.2f p99=%.2f p999=%.2f max=%.2f%n",
+            LatencyRecorder.percentile(latencies, 50),
+            LatencyRecorder.percentile(latencies, 90),
+            LatencyRecorder.percentile(latencies, 99),
+            LatencyRecorder.percentile(latencies, 99.9),
+            LatencyRecorder.percentile(latencies, 100));
+        if (upstream != null) {
+            System.out.printf("Upstream:    %d requests, %d not modified, %d failed%n",
+                upstream.requests(), upstream.notModified(), upstream.failures());
+        }
+    }
+
+    private int intOption(String name) {
+        return Integer.parseInt(options.get(name));
+    }
+
+    private long longOption(String name) {
+        return Long.parseLong(options.get(name));
+    }
+
+    private double doubleOption(String name) {
+        return Double.parseDouble(options.get(name));
+    }
+}
@@ -0,0 +1,187 @@
+package com.stephenmatta.ics;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serves synthetic feeds at {@code /feed-1.ics} to {@code /feed-N.ics}, standing in for the
+ * upstream calendars. Each response is delayed by a fixed latency plus a uniformly random jitter,
+ * and fails with a 503 at the configured rate. The feeds change every {@code changeSeconds},
+ * and until then answer conditional requests with a 304.
+ */
+final class SimulatedUpstream {
+
+    private static final DateTimeFormatter ICS_DATE_TIME =
+        DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+
+    private final int sources;
+    private final int events;
+    private final long latencyMillis;
+    private final long jitterMillis;
+    private final double failureRate;
+    private final long changeSeconds;
+    private final Instant start = Instant.now().truncatedTo(ChronoUnit.HOURS);
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong notModified = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile Feeds feeds;
+
+    SimulatedUpstream(int sources, int events, long latencyMillis, long jitterMillis,
+        double failureRate, long changeSeconds) throws IOException {
+        this.sources = sources;
+        this.events = events;
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+        this.failureRate = failureRate;
+        this.changeSeconds = changeSeconds;
+        this.feeds = generate(0);
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Returns the comma-separated feed URLs, as {@code ICS_URLS} expects them.
+     */
+    String urls() {
+        List<String> urls = new ArrayList<>();
+        for (int i = 1; i <= sources; i++) {
+            urls.add("http://localhost:" + server.getAddress().getPort() + "/feed-" + i + ".ics");
+        }
+        return String.join(",", urls);
+    }
+
+    long requests() {
+        return requests.get();
+    }
+
+    long notModified() {
+        return notModified.get();
+    }
+
+    long failures() {
+        return failures.get();
+    }
+
+    void stop() {
+        server.stop(0);
+        executor.close();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            requests.incrementAndGet();
+            sleep(latencyMillis + (jitterMillis > 0
+                ? ThreadLocalRandom.current().nextLong(jitterMillis + 1) : 0));
+            if (failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate) {
+                failures.incrementAndGet();
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+            int feed = feedNumber(exchange.getRequestURI().getPath());
+            if (feed < 1 || feed > sources) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            Feeds current = currentFeeds();
+            String etag = "\"" + current.version + "-" + feed + "\"";
+            exchange.getResponseHeaders().set("ETag", etag);
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                notModified.incrementAndGet();
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+            byte[] body = current.bodies.get(feed - 1);
+            exchange.getResponseHeaders().set("Content-Type", "text/calendar");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+        }
+    }
+
+    private Feeds currentFeeds() {
+        Feeds current = feeds;
+        if (changeSeconds <= 0) {
+            return current;
+        }
+        long version = (Instant.now().getEpochSecond() - start.getEpochSecond()) / changeSeconds;
+        if (version == current.version) {
+            return current;
+        }
+        synchronized (this) {
+            if (feeds.version != version) {
+                feeds = generate(version);
+            }
+            return feeds;
+        }
+    }
+
+    private Feeds generate(long version) {
+        List<byte[]> bodies = new ArrayList<>(sources);
+        for (int feed = 1; feed <= sources; feed++) {
+            StringBuilder ics = new StringBuilder(events * 200 + 100)
+                .append("BEGIN:VCALENDAR\r\nVERSION:2.0\r\nPRODID:-//Masher//Load Test//EN\r\n");
+            for (int event = 0; event < events; event++) {
+                // Spread events a year either side of now, a few hours apart
+                Instant eventStart = start.plus((event - events / 2) * 17L, ChronoUnit.HOURS);
+                ics.append("BEGIN:VEVENT\r\n")
+                    .append("UID:").append(feed).append('-').append(event)
+                    .append("@loadtest.example.com\r\n")
+                    .append("DTSTAMP:").append(ICS_DATE_TIME.format(start)).append("\r\n")
+                    .append("DTSTART:").append(ICS_DATE_TIME.format(eventStart)).append("\r\n")
+                    .append("DTEND:").append(ICS_DATE_TIME.format(eventStart.plusSeconds(3600)))
+                    .append("\r\n")
+                    .append("SUMMARY:Feed ").append(feed).append(" event ").append(event)
+                    .append(" version ").append(version).append("\r\n")
+                    .append("END:VEVENT\r\n");
+            }
+            bodies.add(ics.append("END:VCALENDAR\r\n").toString().getBytes(UTF_8));
+        }
+        return new Feeds(version, bodies);
+    }
+
+    private static int feedNumber(String path) {
+        if (!path.startsWith("/feed-") || !path.endsWith(".ics")) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(path.substring(6, path.length() - 4));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private record Feeds(long version, List<byte[]> bodies) {
+
+    }
+}